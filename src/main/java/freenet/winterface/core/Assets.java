@@ -0,0 +1,126 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+
+/**
+ * Fingerprinted URLs of the files in the {@code static} folder, available to templates as
+ * {@code $assets}, e.g. {@code $assets.url("css/bootstrap.min.css")}.
+ * <p>
+ * A fingerprint is taken from the file's content, so its URL changes whenever the file
+ * changes, and browsers may keep it forever (see {@link StaticCacheFilter}). The build writes
+ * the fingerprints of all files next to them, which are loaded once; when running from the
+ * sources, the files are fingerprinted instead. Files added later have no fingerprint.
+ * </p>
+ */
+public class Assets {
+
+	/** Path static files are served at */
+	public final static String STATIC_PATH = "/static/";
+	/** Parameter carrying the fingerprint */
+	public final static String VERSION_PARAM = "v";
+
+	/** Classpath folder of the static files */
+	private final static String STATIC_RESOURCES = "static/";
+	/** Classpath folder of the fingerprints written by the build */
+	private final static String FINGERPRINT_RESOURCES = "static-fingerprints/";
+	/** Extension of the fingerprint files */
+	private final static String FINGERPRINT_EXTENSION = ".sha1";
+	/** Extension of the compressed copies of static files, which are not referred to */
+	private final static String GZIP_EXTENSION = ".gz";
+	/** Number of hexadecimal digits of a fingerprint used in URLs */
+	private final static int FINGERPRINT_LENGTH = 12;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(Assets.class);
+
+	/** Fingerprints by file name, of all static files */
+	private final Map<String, String> fingerprints;
+
+	public Assets() {
+		fingerprints = Collections.unmodifiableMap(loadFingerprints());
+	}
+
+	/**
+	 * Returns the URL of a static file, including its fingerprint.
+	 *
+	 * @param name
+	 *            path of the file within the {@code static} folder
+	 * @return the URL of the file
+	 */
+	public String url(String name) {
+		String fingerprint = getFingerprint(name);
+		if (fingerprint == null) {
+			return STATIC_PATH + name;
+		}
+		return STATIC_PATH + name + "?" + VERSION_PARAM + "=" + fingerprint;
+	}
+
+	/**
+	 * Returns the fingerprint of a static file.
+	 *
+	 * @param name
+	 *            path of the file within the {@code static} folder
+	 * @return the fingerprint, or {@code null} if there is no such file
+	 */
+	public String getFingerprint(String name) {
+		return fingerprints.get(name);
+	}
+
+	/**
+	 * @return number of files with a fingerprint
+	 */
+	int size() {
+		return fingerprints.size();
+	}
+
+	/**
+	 * Reads the fingerprints written by the build, or fingerprints the static files if there
+	 * are none.
+	 */
+	private static Map<String, String> loadFingerprints() {
+		Map<String, String> fingerprints = new HashMap<String, String>();
+		ClassLoader classLoader = Assets.class.getClassLoader();
+		for (String written : StaticResourceServlet.listResources(FINGERPRINT_RESOURCES)) {
+			if (!written.endsWith(FINGERPRINT_EXTENSION)) {
+				continue;
+			}
+			try {
+				URL url = classLoader.getResource(FINGERPRINT_RESOURCES + written);
+				String name = written.substring(0, written.length() - FINGERPRINT_EXTENSION.length());
+				fingerprints.put(name, shorten(Resources.toString(url, Charsets.US_ASCII).trim()));
+			} catch (IOException e) {
+				logger.warn("Could not read fingerprint " + written, e);
+			}
+		}
+		if (!fingerprints.isEmpty()) {
+			return fingerprints;
+		}
+		for (String name : StaticResourceServlet.listResources(STATIC_RESOURCES)) {
+			if (name.endsWith(GZIP_EXTENSION)) {
+				continue;
+			}
+			try {
+				URL url = classLoader.getResource(STATIC_RESOURCES + name);
+				fingerprints.put(name, shorten(Hashing.sha1().hashBytes(Resources.toByteArray(url)).toString()));
+			} catch (IOException e) {
+				logger.warn("Could not fingerprint static file " + name, e);
+			}
+		}
+		return fingerprints;
+	}
+
+	private static String shorten(String hash) {
+		return hash.length() > FINGERPRINT_LENGTH ? hash.substring(0, FINGERPRINT_LENGTH) : hash;
+	}
+
+}
@@ -0,0 +1,125 @@
+package freenet.winterface.core;
+
+/**
+ * A single byte range of an HTTP {@code Range} request header (RFC 7233).
+ * <p>
+ * Only single ranges are supported. Requests for several ranges are treated as if no range
+ * was requested, which the RFC allows; the full content is sent instead.
+ * </p>
+ *
+ * @see #parse(String, long)
+ */
+public final class ByteRange {
+
+	/** Marks a range lying completely outside of the content */
+	public final static ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+	/** Unit of the ranges we support */
+	private final static String BYTES_UNIT = "bytes=";
+
+	/** Position of the first byte in the range */
+	public final long first;
+	/** Position of the last byte in the range (inclusive) */
+	public final long last;
+
+	private ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * @return number of bytes in this range
+	 */
+	public long length() {
+		return last - first + 1;
+	}
+
+	/**
+	 * Returns the value of the {@code Content-Range} response header for this range.
+	 *
+	 * @param size
+	 *            total size of the content
+	 * @return header value
+	 */
+	public String toContentRange(long size) {
+		if (this == UNSATISFIABLE) {
+			return "bytes */" + size;
+		}
+		return "bytes " + first + "-" + last + "/" + size;
+	}
+
+	/**
+	 * Returns whether the value of a {@code Range} request header asks for the complete
+	 * content, like the {@code bytes=0-} browsers send when they start playing media. Such
+	 * requests may be answered like requests without a range, which the RFC allows.
+	 *
+	 * @param header
+	 *            value of the header, may be {@code null}
+	 * @return {@code true} if the range starts at the first byte and is open
+	 */
+	public static boolean isCompleteContent(String header) {
+		if (header == null || !header.startsWith(BYTES_UNIT)) {
+			return false;
+		}
+		String spec = header.substring(BYTES_UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0 || !spec.substring(dash + 1).trim().isEmpty()) {
+			return false;
+		}
+		try {
+			return Long.parseLong(spec.substring(0, dash).trim()) == 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parses the value of a {@code Range} request header.
+	 *
+	 * @param header
+	 *            value of the header, may be {@code null}
+	 * @param size
+	 *            total size of the content
+	 * @return the requested range, {@link #UNSATISFIABLE} if it lies outside of the
+	 *         content, or {@code null} if the full content should be sent (no
+	 *         header, malformed header or several ranges)
+	 */
+	public static ByteRange parse(String header, long size) {
+		if (header == null || !header.startsWith(BYTES_UNIT)) {
+			return null;
+		}
+		String spec = header.substring(BYTES_UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0 || spec.indexOf(',') >= 0) {
+			return null;
+		}
+		try {
+			String firstSpec = spec.substring(0, dash).trim();
+			String lastSpec = spec.substring(dash + 1).trim();
+			long first;
+			long last;
+			if (firstSpec.isEmpty()) {
+				// Suffix range: the last n bytes
+				long suffix = Long.parseLong(lastSpec);
+				if (suffix <= 0) {
+					return suffix == 0 ? UNSATISFIABLE : null;
+				}
+				first = Math.max(0, size - suffix);
+				last = size - 1;
+			} else {
+				first = Long.parseLong(firstSpec);
+				last = lastSpec.isEmpty() ? size - 1 : Math.min(Long.parseLong(lastSpec), size - 1);
+				if (first < 0 || (!lastSpec.isEmpty() && Long.parseLong(lastSpec) < first)) {
+					return null;
+				}
+			}
+			if (first >= size || last < first) {
+				return UNSATISFIABLE;
+			}
+			return new ByteRange(first, last);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package freenet.winterface.core;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.exception.MethodInvocationException;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.exception.TemplateInitException;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.parser.node.Node;
+
+/**
+ * Template directive rendering its content once and copying it into later pages from the
+ * {@link FragmentCache}, e.g. for the panels of the dashboard:
+ * 
+ * <pre>
+ * #cached("dashboard.status", 10, $freenet.getConnectionsVersion())
+ *   #parse("templates/status.vm")
+ * #end
+ * </pre>
+ * 
+ * The arguments are the name of the part, the time in seconds it may be used for (0 for no
+ * limit), and optionally the version of the data it shows; the part is rendered again as soon
+ * as the version changes. Variables set within the part are not set if it is copied.
+ */
+public class CachedDirective extends Directive {
+
+	private FragmentCache cache;
+
+	@Override
+	public String getName() {
+		return "cached";
+	}
+
+	@Override
+	public int getType() {
+		return BLOCK;
+	}
+
+	@Override
+	public void init(RuntimeServices rs, InternalContextAdapter context, Node node) throws TemplateInitException {
+		super.init(rs, context, node);
+		int arguments = node.jjtGetNumChildren() - 1;
+		if (arguments < 2 || arguments > 3) {
+			throw new TemplateInitException("#cached expects a name, a time to live and optionally a version", context.getCurrentTemplateName(),
+					node.getColumn(), node.getLine());
+		}
+		cache = (FragmentCache) rs.getApplicationAttribute(FragmentCache.APPLICATION_ATTRIBUTE);
+	}
+
+	@Override
+	public boolean render(InternalContextAdapter context, Writer writer, Node node) throws IOException, ResourceNotFoundException,
+			ParseErrorException, MethodInvocationException {
+		int arguments = node.jjtGetNumChildren() - 1;
+		Node block = node.jjtGetChild(arguments);
+		if (cache == null) {
+			return block.render(context, writer);
+		}
+		String key = String.valueOf(node.jjtGetChild(0).value(context));
+		Object ttl = node.jjtGetChild(1).value(context);
+		Object version = arguments > 2 ? node.jjtGetChild(2).value(context) : null;
+		String content = cache.get(key, version);
+		if (content == null) {
+			StringWriter out = new StringWriter();
+			block.render(context, out);
+			content = out.toString();
+			cache.put(key, version, content, ttl instanceof Number ? SECONDS.toMillis(((Number) ttl).longValue()) : 0);
+		}
+		writer.write(content);
+		return true;
+	}
+
+}
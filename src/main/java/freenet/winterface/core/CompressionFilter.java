@@ -0,0 +1,444 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.log4j.Logger;
+
+/**
+ * {@link Filter} compressing responses with {@code gzip} or {@code deflate}, whichever the
+ * browser accepts (see {@code Accept-Encoding}).
+ * <p>
+ * Whether a response is compressed is decided once its first byte is written, as only then
+ * its type and status are known: content which is compressed already (images, video,
+ * archives, ...), partial content, tiny responses and {@link StaticResourceServlet static files}
+ * are sent as they are. Compressed data is written as it is produced, so streamed responses
+ * stay streamed.
+ * </p>
+ * <p>
+ * Requests completing asynchronously must be started with
+ * {@link ServletRequest#startAsync(ServletRequest, ServletResponse)}, passing on the
+ * response given to the servlet; the compressed data is finished once they complete.
+ * </p>
+ *
+ * @see Configuration#getCompressionLevel()
+ */
+public class CompressionFilter implements Filter {
+
+	/** Filter parameter name containing the compression level, from 1 to 9 */
+	public final static String COMPRESSION_LEVEL_PARAM = "compressionLevel";
+
+	private final static String GZIP = "gzip";
+	private final static String DEFLATE = "deflate";
+
+	/** Responses smaller than this are not worth compressing */
+	private final static int MIN_LENGTH = 256;
+	/** Size of the buffer compressed data is collected in */
+	private final static int BUFFER_SIZE = 8192;
+
+	/** Types of content which is compressed already */
+	private final static List<String> compressedTypes = Arrays.asList("image/", "video/", "audio/", "font/woff", "application/zip",
+			"application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz", "application/x-7z-compressed",
+			"application/x-rar-compressed", "application/octet-stream", "application/font-woff", "application/ogg");
+	/** Image types which do compress */
+	private final static List<String> compressibleImageTypes = Arrays.asList("image/svg+xml", "image/bmp", "image/x-icon");
+
+	/** Log4j Logger */
+	private final static Logger logger = Logger.getLogger(CompressionFilter.class);
+
+	private int level;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		level = Integer.parseInt(filterConfig.getInitParameter(COMPRESSION_LEVEL_PARAM));
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		HttpServletResponse httpResponse = (HttpServletResponse) response;
+		String encoding = selectEncoding(httpRequest.getHeader("Accept-Encoding"));
+		// Static files come compressed by the build, and are sent without copying them
+		if (level <= 0 || encoding == null || httpRequest.getHeader("Range") != null
+				|| httpRequest.getRequestURI().startsWith(Assets.STATIC_PATH)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		final CompressingResponse compressingResponse = new CompressingResponse(httpResponse, encoding);
+		chain.doFilter(request, compressingResponse);
+		if (request.isAsyncStarted()) {
+			request.getAsyncContext().addListener(new AsyncListener() {
+				@Override
+				public void onComplete(AsyncEvent event) throws IOException {
+					compressingResponse.finish();
+				}
+
+				@Override
+				public void onTimeout(AsyncEvent event) {
+					// nothing!
+				}
+
+				@Override
+				public void onError(AsyncEvent event) {
+					// nothing!
+				}
+
+				@Override
+				public void onStartAsync(AsyncEvent event) {
+					// nothing!
+				}
+			});
+		} else {
+			compressingResponse.finish();
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	/**
+	 * Picks the encoding to compress with from an {@code Accept-Encoding} request header.
+	 *
+	 * @param acceptEncoding
+	 *            value of the header, may be {@code null}
+	 * @return {@code "gzip"}, {@code "deflate"}, or {@code null} if the browser accepts neither
+	 */
+	static String selectEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		boolean deflate = false;
+		for (String coding : acceptEncoding.toLowerCase(Locale.ENGLISH).split(",")) {
+			String[] parameters = coding.split(";");
+			String name = parameters[0].trim();
+			boolean accepted = true;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						accepted = Float.parseFloat(parameter.substring(2)) > 0;
+					} catch (NumberFormatException e) {
+						accepted = false;
+					}
+				}
+			}
+			if (!accepted) {
+				continue;
+			}
+			if (name.equals(GZIP) || name.equals("x-gzip") || name.equals("*")) {
+				return GZIP;
+			}
+			deflate |= name.equals(DEFLATE);
+		}
+		return deflate ? DEFLATE : null;
+	}
+
+	/**
+	 * Checks whether content of the given type is worth compressing.
+	 *
+	 * @param contentType
+	 *            value of the {@code Content-Type} header, may be {@code null}
+	 * @return {@code false} if the content is (most likely) compressed already
+	 */
+	static boolean isCompressible(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		String type = contentType.split(";")[0].trim().toLowerCase(Locale.ENGLISH);
+		if (compressibleImageTypes.contains(type)) {
+			return true;
+		}
+		for (String compressedType : compressedTypes) {
+			if (type.startsWith(compressedType)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Response which compresses its content, if it turns out to be worth it. Headers which
+	 * depend on the decision are held back until it is made.
+	 */
+	private class CompressingResponse extends HttpServletResponseWrapper {
+
+		private final String encoding;
+		private int status = SC_OK;
+		private long contentLength = -1;
+		private String etag;
+		private boolean noCompression;
+		/** Whether the content is compressed, {@code null} until that is decided */
+		private Boolean compressing;
+		private CompressingOutputStream outputStream;
+		private PrintWriter writer;
+
+		CompressingResponse(HttpServletResponse response, String encoding) {
+			super(response);
+			this.encoding = encoding;
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			super.setStatus(sc);
+			status = sc;
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public void setStatus(int sc, String sm) {
+			super.setStatus(sc, sm);
+			status = sc;
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			noCompression = true;
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			noCompression = true;
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			noCompression = true;
+			super.sendRedirect(location);
+		}
+
+		@Override
+		public void setContentLength(int len) {
+			contentLength = len;
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			if (!holdBack(name, value)) {
+				super.setHeader(name, value);
+			}
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if (!holdBack(name, value)) {
+				super.addHeader(name, value);
+			}
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+			if (!holdBack(name, Integer.toString(value))) {
+				super.setIntHeader(name, value);
+			}
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+			if (!holdBack(name, Integer.toString(value))) {
+				super.addIntHeader(name, value);
+			}
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (writer != null) {
+				throw new IllegalStateException("getWriter() has been called already");
+			}
+			if (outputStream == null) {
+				outputStream = new CompressingOutputStream(this);
+			}
+			return outputStream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				if (outputStream != null) {
+					throw new IllegalStateException("getOutputStream() has been called already");
+				}
+				outputStream = new CompressingOutputStream(this);
+				writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			} else if (outputStream != null) {
+				outputStream.flush();
+			} else {
+				decide();
+			}
+			super.flushBuffer();
+		}
+
+		@Override
+		public void reset() {
+			if (compressing != null) {
+				throw new IllegalStateException("Response has been written to already");
+			}
+			super.reset();
+			super.addHeader("Vary", "Accept-Encoding");
+			status = SC_OK;
+			contentLength = -1;
+			etag = null;
+			noCompression = false;
+			outputStream = null;
+			writer = null;
+		}
+
+		/**
+		 * Finishes the compressed data, if any, and sends held back headers.
+		 */
+		void finish() {
+			try {
+				if (writer != null) {
+					writer.close();
+				} else if (outputStream != null) {
+					outputStream.close();
+				} else {
+					decide();
+				}
+			} catch (IOException e) {
+				logger.debug("Could not finish response", e);
+			}
+		}
+
+		private boolean holdBack(String name, String value) {
+			if ("Content-Length".equalsIgnoreCase(name)) {
+				contentLength = Long.parseLong(value);
+				return true;
+			}
+			if ("ETag".equalsIgnoreCase(name)) {
+				etag = value;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Decides whether to compress the content, and sends the headers held back so far.
+		 *
+		 * @return {@code true} if the content is to be compressed
+		 */
+		boolean decide() {
+			if (compressing != null) {
+				return compressing;
+			}
+			boolean compress = !noCompression && !isCommitted() && status == SC_OK && (contentLength < 0 || contentLength >= MIN_LENGTH)
+					&& getHeader("Content-Encoding") == null && isCompressible(getContentType());
+			if (compress) {
+				super.setHeader("Content-Encoding", encoding);
+				if (etag != null) {
+					// The compressed content is a different representation of the same data
+					super.setHeader("ETag", etag.startsWith("W/") ? etag : "W/" + etag);
+				}
+			} else {
+				if (contentLength >= 0) {
+					super.setHeader("Content-Length", Long.toString(contentLength));
+				}
+				if (etag != null) {
+					super.setHeader("ETag", etag);
+				}
+			}
+			compressing = compress;
+			return compress;
+		}
+
+		/**
+		 * @return new stream compressing into the given one
+		 */
+		OutputStream compress(OutputStream out) throws IOException {
+			if (GZIP.equals(encoding)) {
+				return new GZIPOutputStream(out, BUFFER_SIZE, true) {
+					{
+						def.setLevel(level);
+					}
+				};
+			}
+			return new DeflaterOutputStream(out, new Deflater(level), BUFFER_SIZE, true);
+		}
+	}
+
+	/**
+	 * Stream writing to the response, compressed or not as decided on the first write.
+	 */
+	private static class CompressingOutputStream extends ServletOutputStream {
+
+		private final CompressingResponse response;
+		private boolean closed;
+		private OutputStream out;
+
+		CompressingOutputStream(CompressingResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out().flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (out != null) {
+				// Writes the remaining compressed data, if any
+				out.close();
+			} else {
+				response.decide();
+			}
+		}
+
+		private OutputStream out() throws IOException {
+			if (closed) {
+				throw new IOException("Stream is closed");
+			}
+			if (out == null) {
+				OutputStream responseOut = response.getResponse().getOutputStream();
+				out = response.decide() ? response.compress(responseOut) : responseOut;
+			}
+			return out;
+		}
+	}
+
+}
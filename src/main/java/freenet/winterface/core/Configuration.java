@@ -36,14 +36,40 @@ public class Configuration {
 	private String bindTo;
 	/** Maximum size for transparent pass-through */
 	private long maxLength;
+	/** Memory budget of the fetch result cache */
+	private long fetchCacheSize;
+	/** Time a request may wait for its fetch */
+	private int asyncTimeout;
+	/** If the content of pages is prefetched */
+	private boolean prefetch;
+	/** Number of prefetches running at once */
+	private int prefetchConcurrency;
+	/** Number of fetches for browsers running at once */
+	private int maxConcurrentFetches;
+	/** Level responses are compressed with, 0 to disable */
+	private int compressionLevel;
+	/** Number of threads kept for requests */
+	private int minThreads;
+	/** Maximum number of threads handling requests */
+	private int maxThreads;
+	/** Number of requests which may wait for a thread */
+	private int maxQueuedRequests;
+	/** Number of threads accepting connections */
+	private int acceptors;
+	/** If requests are handled on virtual threads */
+	private boolean virtualThreads;
+	/** Memory budget of the static file cache */
+	private long staticCacheSize;
+	/** Time running requests may take to finish when stopping */
+	private int shutdownTimeout;
 
 	/** Default server port value */
 	private final static int PORT_DEFAULT = 8088;
 	/** Port entry name in config file */
 	private final static String PORT_OPTION = "port";
 
-	/** Default server idle timeout */
-	private final static int IDLE_TIEMOUT_DEFAULT = (int)TimeUnit.HOURS.toMillis(1);
+	/** Default server idle timeout, how long a kept alive connection waits for a request */
+	private final static int IDLE_TIEMOUT_DEFAULT = (int)TimeUnit.SECONDS.toMillis(30);
 	/** Server idle timeout entry name in config file */
 	private final static String IDLE_TIMEOUT_OPTION = "idleTimeout";
 
@@ -72,6 +98,71 @@ public class Configuration {
 	/** MaxLength entry name in config file */
 	private final static String MAXLENGTH_OPTION = "maxLength";
 
+	/** Default memory budget of the fetch result cache (16MiB) */
+	private final static long FETCH_CACHE_SIZE_DEFAULT = 16 * 1024 * 1024;
+	/** Fetch result cache budget entry name in config file */
+	private final static String FETCH_CACHE_SIZE_OPTION = "fetchCacheSize";
+
+	/** Default time a request may wait for its fetch */
+	private final static int ASYNC_TIMEOUT_DEFAULT = (int) TimeUnit.MINUTES.toMillis(5);
+	/** Fetch wait time entry name in config file */
+	private final static String ASYNC_TIMEOUT_OPTION = "asyncTimeout";
+
+	/** Default prefetch mode */
+	private final static boolean PREFETCH_DEFAULT = false;
+	/** Prefetch mode entry name in config file */
+	private final static String PREFETCH_OPTION = "prefetch";
+
+	/** Default number of prefetches running at once */
+	private final static int PREFETCH_CONCURRENCY_DEFAULT = 4;
+	/** Prefetch concurrency entry name in config file */
+	private final static String PREFETCH_CONCURRENCY_OPTION = "prefetchConcurrency";
+
+	/** Default number of fetches for browsers running at once */
+	private final static int MAX_CONCURRENT_FETCHES_DEFAULT = 10;
+	/** Fetch concurrency entry name in config file */
+	private final static String MAX_CONCURRENT_FETCHES_OPTION = "maxConcurrentFetches";
+
+	/** Default compression level */
+	private final static int COMPRESSION_LEVEL_DEFAULT = 6;
+	/** Compression level entry name in config file */
+	private final static String COMPRESSION_LEVEL_OPTION = "compressionLevel";
+
+	/** Default number of threads kept for requests */
+	private final static int MIN_THREADS_DEFAULT = 2;
+	/** Minimum threads entry name in config file */
+	private final static String MIN_THREADS_OPTION = "minThreads";
+
+	/** Default maximum number of threads handling requests */
+	private final static int MAX_THREADS_DEFAULT = 32;
+	/** Maximum threads entry name in config file */
+	private final static String MAX_THREADS_OPTION = "maxThreads";
+
+	/** Default number of requests which may wait for a thread */
+	private final static int MAX_QUEUED_REQUESTS_DEFAULT = 256;
+	/** Request queue size entry name in config file */
+	private final static String MAX_QUEUED_REQUESTS_OPTION = "maxQueuedRequests";
+
+	/** Default number of threads accepting connections */
+	private final static int ACCEPTORS_DEFAULT = 1;
+	/** Acceptor threads entry name in config file */
+	private final static String ACCEPTORS_OPTION = "acceptors";
+
+	/** Default virtual threads mode */
+	private final static boolean VIRTUAL_THREADS_DEFAULT = false;
+	/** Virtual threads mode entry name in config file */
+	private final static String VIRTUAL_THREADS_OPTION = "virtualThreads";
+
+	/** Default memory budget of the static file cache (4MiB) */
+	private final static long STATIC_CACHE_SIZE_DEFAULT = 4 * 1024 * 1024;
+	/** Static file cache budget entry name in config file */
+	private final static String STATIC_CACHE_SIZE_OPTION = "staticCacheSize";
+
+	/** Default time running requests may take to finish when stopping */
+	private final static int SHUTDOWN_TIMEOUT_DEFAULT = (int) TimeUnit.SECONDS.toMillis(5);
+	/** Shutdown timeout entry name in config file */
+	private final static String SHUTDOWN_TIMEOUT_OPTION = "shutdownTimeout";
+
 	/**
 	 * {@link ConfigCallback} for gate public way mode
 	 * 
@@ -215,7 +306,279 @@ public class Configuration {
 
 		@Override
 		public void set(Long val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val <= 0) {
+				throw new InvalidConfigValueException("Maximum length must be positive.");
+			}
 			maxLength = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for fetch result cache size
+	 */
+	class FetchCacheSize extends LongCallback {
+
+		@Override
+		public Long get() {
+			return fetchCacheSize;
+		}
+
+		@Override
+		public void set(Long val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Cache size must not be negative.");
+			}
+			fetchCacheSize = val;
+			// The cache is created with the node's interface
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the time a request may wait for its fetch
+	 */
+	class AsyncTimeout extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return asyncTimeout;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val <= 0) {
+				throw new InvalidConfigValueException("Timeout must be positive.");
+			}
+			asyncTimeout = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for prefetch mode
+	 */
+	class PrefetchOption extends BooleanCallback {
+
+		@Override
+		public Boolean get() {
+			return prefetch;
+		}
+
+		@Override
+		public void set(Boolean val) throws InvalidConfigValueException, NodeNeedRestartException {
+			prefetch = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+	}
+
+	/**
+	 * {@link ConfigCallback} for the number of prefetches running at once
+	 */
+	class PrefetchConcurrency extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return prefetchConcurrency;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val <= 0) {
+				throw new InvalidConfigValueException("Concurrency must be positive.");
+			}
+			prefetchConcurrency = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the number of fetches for browsers running at once
+	 */
+	class MaxConcurrentFetches extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxConcurrentFetches;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val <= 0) {
+				throw new InvalidConfigValueException("Concurrency must be positive.");
+			}
+			maxConcurrentFetches = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the response compression level
+	 */
+	class CompressionLevel extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return compressionLevel;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0 || val > 9) {
+				throw new InvalidConfigValueException("Compression level must be between 0 and 9.");
+			}
+			compressionLevel = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the number of threads kept for requests
+	 */
+	class MinThreads extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return minThreads;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val <= 0) {
+				throw new InvalidConfigValueException("Number of threads must be positive.");
+			}
+			minThreads = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the maximum number of threads handling requests
+	 */
+	class MaxThreads extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxThreads;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			// Before the acceptors are registered there is nothing to check against
+			if (acceptors > 0 && val <= getConnectorThreads(acceptors)) {
+				throw new InvalidConfigValueException("Number of threads must be larger than the number of acceptors plus one, for each address bound to.");
+			}
+			maxThreads = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the number of requests which may wait for a thread
+	 */
+	class MaxQueuedRequests extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxQueuedRequests;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Queue size must not be negative.");
+			}
+			maxQueuedRequests = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the number of threads accepting connections
+	 */
+	class Acceptors extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return acceptors;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val <= 0) {
+				throw new InvalidConfigValueException("Number of acceptors must be positive.");
+			}
+			if (val != acceptors && maxThreads <= getConnectorThreads(val)) {
+				throw new InvalidConfigValueException("Number of threads must be larger than the number of acceptors plus one, for each address bound to.");
+			}
+			acceptors = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for virtual threads mode
+	 */
+	class VirtualThreadsOption extends BooleanCallback {
+
+		@Override
+		public Boolean get() {
+			return virtualThreads;
+		}
+
+		@Override
+		public void set(Boolean val) throws InvalidConfigValueException, NodeNeedRestartException {
+			virtualThreads = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+	}
+
+	/**
+	 * {@link ConfigCallback} for the memory budget of the static file cache
+	 */
+	class StaticCacheSize extends LongCallback {
+
+		@Override
+		public Long get() {
+			return staticCacheSize;
+		}
+
+		@Override
+		public void set(Long val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Cache size must not be negative.");
+			}
+			staticCacheSize = val;
+			throw new NodeNeedRestartException("Winterface needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for the time running requests may take to finish when stopping
+	 */
+	class ShutdownTimeout extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return shutdownTimeout;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Timeout must not be negative.");
+			}
+			shutdownTimeout = val;
 		}
 
 	}
@@ -249,6 +612,45 @@ public class Configuration {
 		subConfig.register(MAXLENGTH_OPTION, MAXLENGTH_DEFAULT, ++sortOrder, true, false, shortDesc(MAXLENGTH_OPTION), longDesc(MAXLENGTH_OPTION),
 				new MaxLength(), false);
 		maxLength = subConfig.getLong(MAXLENGTH_OPTION);
+		subConfig.register(FETCH_CACHE_SIZE_OPTION, FETCH_CACHE_SIZE_DEFAULT, ++sortOrder, true, false, shortDesc(FETCH_CACHE_SIZE_OPTION),
+				longDesc(FETCH_CACHE_SIZE_OPTION), new FetchCacheSize(), true);
+		fetchCacheSize = subConfig.getLong(FETCH_CACHE_SIZE_OPTION);
+		subConfig.register(ASYNC_TIMEOUT_OPTION, ASYNC_TIMEOUT_DEFAULT, ++sortOrder, true, false, shortDesc(ASYNC_TIMEOUT_OPTION),
+				longDesc(ASYNC_TIMEOUT_OPTION), new AsyncTimeout(), false);
+		asyncTimeout = subConfig.getInt(ASYNC_TIMEOUT_OPTION);
+		subConfig.register(PREFETCH_OPTION, PREFETCH_DEFAULT, ++sortOrder, true, false, shortDesc(PREFETCH_OPTION), longDesc(PREFETCH_OPTION),
+				new PrefetchOption());
+		prefetch = subConfig.getBoolean(PREFETCH_OPTION);
+		subConfig.register(PREFETCH_CONCURRENCY_OPTION, PREFETCH_CONCURRENCY_DEFAULT, ++sortOrder, true, false, shortDesc(PREFETCH_CONCURRENCY_OPTION),
+				longDesc(PREFETCH_CONCURRENCY_OPTION), new PrefetchConcurrency(), false);
+		prefetchConcurrency = subConfig.getInt(PREFETCH_CONCURRENCY_OPTION);
+		subConfig.register(MAX_CONCURRENT_FETCHES_OPTION, MAX_CONCURRENT_FETCHES_DEFAULT, ++sortOrder, true, false,
+				shortDesc(MAX_CONCURRENT_FETCHES_OPTION), longDesc(MAX_CONCURRENT_FETCHES_OPTION), new MaxConcurrentFetches(), false);
+		maxConcurrentFetches = subConfig.getInt(MAX_CONCURRENT_FETCHES_OPTION);
+		subConfig.register(COMPRESSION_LEVEL_OPTION, COMPRESSION_LEVEL_DEFAULT, ++sortOrder, true, false, shortDesc(COMPRESSION_LEVEL_OPTION),
+				longDesc(COMPRESSION_LEVEL_OPTION), new CompressionLevel(), false);
+		compressionLevel = subConfig.getInt(COMPRESSION_LEVEL_OPTION);
+		subConfig.register(MIN_THREADS_OPTION, MIN_THREADS_DEFAULT, ++sortOrder, true, false, shortDesc(MIN_THREADS_OPTION),
+				longDesc(MIN_THREADS_OPTION), new MinThreads(), false);
+		minThreads = subConfig.getInt(MIN_THREADS_OPTION);
+		subConfig.register(MAX_THREADS_OPTION, MAX_THREADS_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_THREADS_OPTION),
+				longDesc(MAX_THREADS_OPTION), new MaxThreads(), false);
+		maxThreads = subConfig.getInt(MAX_THREADS_OPTION);
+		subConfig.register(MAX_QUEUED_REQUESTS_OPTION, MAX_QUEUED_REQUESTS_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_QUEUED_REQUESTS_OPTION),
+				longDesc(MAX_QUEUED_REQUESTS_OPTION), new MaxQueuedRequests(), false);
+		maxQueuedRequests = subConfig.getInt(MAX_QUEUED_REQUESTS_OPTION);
+		subConfig.register(ACCEPTORS_OPTION, ACCEPTORS_DEFAULT, ++sortOrder, true, false, shortDesc(ACCEPTORS_OPTION),
+				longDesc(ACCEPTORS_OPTION), new Acceptors(), false);
+		acceptors = subConfig.getInt(ACCEPTORS_OPTION);
+		subConfig.register(VIRTUAL_THREADS_OPTION, VIRTUAL_THREADS_DEFAULT, ++sortOrder, true, false, shortDesc(VIRTUAL_THREADS_OPTION),
+				longDesc(VIRTUAL_THREADS_OPTION), new VirtualThreadsOption());
+		virtualThreads = subConfig.getBoolean(VIRTUAL_THREADS_OPTION);
+		subConfig.register(STATIC_CACHE_SIZE_OPTION, STATIC_CACHE_SIZE_DEFAULT, ++sortOrder, true, false, shortDesc(STATIC_CACHE_SIZE_OPTION),
+				longDesc(STATIC_CACHE_SIZE_OPTION), new StaticCacheSize(), true);
+		staticCacheSize = subConfig.getLong(STATIC_CACHE_SIZE_OPTION);
+		subConfig.register(SHUTDOWN_TIMEOUT_OPTION, SHUTDOWN_TIMEOUT_DEFAULT, ++sortOrder, true, false, shortDesc(SHUTDOWN_TIMEOUT_OPTION),
+				longDesc(SHUTDOWN_TIMEOUT_OPTION), new ShutdownTimeout(), false);
+		shutdownTimeout = subConfig.getInt(SHUTDOWN_TIMEOUT_OPTION);
 	}
 
 	/**
@@ -335,6 +737,139 @@ public class Configuration {
 	public long getMaxLength() {
 		return maxLength;
 	}
+
+	/**
+	 * Returns the memory budget of the fetch result cache
+	 * 
+	 * @return cache size in bytes
+	 */
+	public long getFetchCacheSize() {
+		return fetchCacheSize;
+	}
+
+	/**
+	 * Returns the time a request may wait for its fetch before it is answered with an error
+	 * 
+	 * @return timeout in milliseconds
+	 */
+	public int getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	/**
+	 * {@code true} if images, style sheets and same-site links of pages are prefetched
+	 * 
+	 * @return {@code false} if nothing is prefetched
+	 */
+	public boolean isPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * Returns the number of prefetches running at once
+	 * 
+	 * @return prefetch concurrency
+	 */
+	public int getPrefetchConcurrency() {
+		return prefetchConcurrency;
+	}
+
+	/**
+	 * Returns the number of fetches for browsers running at once, further ones wait
+	 * 
+	 * @return fetch concurrency
+	 */
+	public int getMaxConcurrentFetches() {
+		return maxConcurrentFetches;
+	}
+
+	/**
+	 * Returns the level responses are compressed with, from 1 (fastest) to 9 (smallest)
+	 * 
+	 * @return compression level, or 0 if responses are not compressed
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * Returns the number of threads kept for requests, even when idle
+	 * 
+	 * @return minimum number of threads
+	 */
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	/**
+	 * Returns the maximum number of threads handling requests, including those accepting
+	 * connections
+	 * 
+	 * @return maximum number of threads
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Returns the number of requests which may wait for a thread, further ones are rejected
+	 * 
+	 * @return request queue size
+	 */
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Returns the number of threads the connectors take from the pool: the acceptors and a
+	 * selector for each address bound to.
+	 * 
+	 * @param acceptors
+	 *            number of acceptors of each connector
+	 * @return number of threads used by the connectors
+	 */
+	int getConnectorThreads(int acceptors) {
+		return bindTo.split(",").length * (acceptors + 1);
+	}
+
+	/**
+	 * Returns the number of threads accepting connections
+	 * 
+	 * @return number of acceptors
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * {@code true} if requests are handled on virtual threads, where the Java runtime supports
+	 * them; the thread pool options apply otherwise
+	 * 
+	 * @return {@code true} if virtual threads are preferred
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Returns the memory budget for keeping static files (style sheets, scripts, images)
+	 * ready to be sent
+	 * 
+	 * @return cache size in bytes, 0 to read them from the plugin on each request
+	 */
+	public long getStaticCacheSize() {
+		return staticCacheSize;
+	}
+
+	/**
+	 * Returns the time running requests may take to finish when Winterface is stopped or
+	 * reloaded, before they are cancelled
+	 * 
+	 * @return timeout in milliseconds, 0 to cancel them right away
+	 */
+	public int getShutdownTimeout() {
+		return shutdownTimeout;
+	}
 	
 	/**
 	 * Checks a comma separated list of hosts (IPs) for validity.
@@ -0,0 +1,39 @@
+package freenet.winterface.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * {@link QueuedThreadPool} counting the jobs which wait for a thread, i.e. the requests
+ * queued while all threads are busy. Its queue is not bounded, as Jetty does not reject
+ * connections the pool refuses; the {@link OverloadFilter} rejects requests instead.
+ */
+public class CountingThreadPool extends QueuedThreadPool {
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	@Override
+	public boolean dispatch(final Runnable job) {
+		queued.incrementAndGet();
+		boolean dispatched = super.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				queued.decrementAndGet();
+				job.run();
+			}
+		});
+		if (!dispatched) {
+			queued.decrementAndGet();
+		}
+		return dispatched;
+	}
+
+	/**
+	 * @return number of jobs waiting for a thread
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+}
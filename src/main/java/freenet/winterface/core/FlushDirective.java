@@ -0,0 +1,38 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.parser.node.Node;
+
+/**
+ * Template directive {@code #flush()}, sending what was rendered so far to the browser if the
+ * page is rendered in streaming mode (see {@link VelocityBase#isStreaming()}). The response is
+ * committed then, so its status and headers can not be changed by the rest of the page.
+ */
+public class FlushDirective extends Directive {
+
+	/** Context key of the streaming mode */
+	public final static String STREAMING_KEY = "streaming";
+
+	@Override
+	public String getName() {
+		return "flush";
+	}
+
+	@Override
+	public int getType() {
+		return LINE;
+	}
+
+	@Override
+	public boolean render(InternalContextAdapter context, Writer writer, Node node) throws IOException {
+		if (Boolean.TRUE.equals(context.get(STREAMING_KEY))) {
+			writer.flush();
+		}
+		return true;
+	}
+
+}
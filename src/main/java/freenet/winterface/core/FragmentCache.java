@@ -0,0 +1,123 @@
+package freenet.winterface.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Objects;
+
+import freenet.winterface.freenet.StatisticsProvider;
+
+/**
+ * Keeps rendered parts of pages, see {@link CachedDirective}. A part is used again as long as
+ * the version of the data it shows is the same, and it is not older than its time to live. The
+ * least recently used parts are dropped if there are more than {@link #MAX_FRAGMENTS}.
+ * <p>
+ * The instance used by the template engine is available as the application attribute
+ * {@link #APPLICATION_ATTRIBUTE}.
+ * </p>
+ */
+public class FragmentCache implements StatisticsProvider {
+
+	/** Velocity application attribute holding the cache */
+	public final static String APPLICATION_ATTRIBUTE = FragmentCache.class.getName();
+
+	/** Maximum number of parts kept */
+	private final static int MAX_FRAGMENTS = 32;
+
+	private final Map<String, Fragment> fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, Fragment> eldest) {
+			return size() > MAX_FRAGMENTS;
+		}
+	};
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns a rendered part, if it is still current.
+	 * 
+	 * @param key
+	 *            name of the part
+	 * @param version
+	 *            current version of the data shown by the part, may be {@code null}
+	 * @return the rendered part, or {@code null} if it has to be rendered
+	 */
+	public String get(String key, Object version) {
+		Fragment fragment;
+		synchronized (fragments) {
+			fragment = fragments.get(key);
+		}
+		if (fragment == null || !Objects.equal(fragment.version, version) || fragment.isExpired()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return fragment.content;
+	}
+
+	/**
+	 * Keeps a rendered part.
+	 * 
+	 * @param key
+	 *            name of the part
+	 * @param version
+	 *            version of the data shown by the part, may be {@code null}
+	 * @param content
+	 *            the rendered part
+	 * @param ttl
+	 *            time in milliseconds the part may be used for, 0 for as long as the version
+	 *            stays the same
+	 */
+	public void put(String key, Object version, String content, long ttl) {
+		Fragment fragment = new Fragment(version, content, ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE);
+		synchronized (fragments) {
+			fragments.put(key, fragment);
+		}
+	}
+
+	/**
+	 * @return number of times a part was used again
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of times a part had to be rendered
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		statistics.put("Statistics.fragmentCacheHits", getHits());
+		statistics.put("Statistics.fragmentCacheMisses", getMisses());
+	}
+
+	/**
+	 * A rendered part of a page.
+	 */
+	private static class Fragment {
+
+		final Object version;
+		final String content;
+		final long expires;
+
+		Fragment(Object version, String content, long expires) {
+			this.version = version;
+			this.content = content;
+			this.expires = expires;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() >= expires;
+		}
+	}
+
+}
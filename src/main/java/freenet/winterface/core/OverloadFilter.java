@@ -0,0 +1,50 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * {@link Filter} answering requests with {@code 503 Service Unavailable} while more requests
+ * wait for a thread of the {@link CountingThreadPool} than configured. Rejecting takes no
+ * time, so the queue drains quickly, and browsers are told to retry shortly.
+ */
+public class OverloadFilter implements Filter {
+
+	/** Parameter of the number of requests which may wait for a thread */
+	public final static String MAX_QUEUED_PARAM = "maxQueued";
+
+	/** Seconds after which browsers may retry a rejected request */
+	private final static String RETRY_AFTER = "1";
+
+	private CountingThreadPool threadPool;
+	private int maxQueued;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		threadPool = (CountingThreadPool) filterConfig.getServletContext().getAttribute(ServerManager.THREAD_POOL);
+		maxQueued = Integer.parseInt(filterConfig.getInitParameter(MAX_QUEUED_PARAM));
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (threadPool != null && threadPool.getQueued() > maxQueued) {
+			HttpServletResponse httpResponse = (HttpServletResponse) response;
+			httpResponse.setHeader("Retry-After", RETRY_AFTER);
+			httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		chain.doFilter(request, response);
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+}
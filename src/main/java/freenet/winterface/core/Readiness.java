@@ -0,0 +1,97 @@
+package freenet.winterface.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tracks the startup of Winterface: the server is started while the template engine is
+ * initialized, and Winterface is ready once both are done. Pages wait for the template engine
+ * if they are requested before.
+ * <p>
+ * The times from loading the plugin to being ready and to serving the first page are logged.
+ * </p>
+ */
+public class Readiness {
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(Readiness.class);
+
+	/** Time the plugin was loaded */
+	private final long loaded = System.currentTimeMillis();
+	private final CountDownLatch templates = new CountDownLatch(1);
+	private volatile boolean serverStarted;
+	private volatile boolean failed;
+	private final AtomicBoolean firstPageServed = new AtomicBoolean();
+	private boolean readyLogged;
+
+	/**
+	 * Reports that the template engine is initialized.
+	 */
+	public void templatesInitialized() {
+		logger.debug("Templates initialized " + getTimeSinceLoaded() + " ms after loading");
+		templates.countDown();
+		logIfReady();
+	}
+
+	/**
+	 * Reports that the template engine could not be initialized; pages then fail instead of
+	 * waiting.
+	 */
+	public void templatesFailed() {
+		failed = true;
+		templates.countDown();
+	}
+
+	/**
+	 * Reports that the server accepts connections.
+	 */
+	public void serverStarted() {
+		logger.debug("Server started " + getTimeSinceLoaded() + " ms after loading");
+		serverStarted = true;
+		logIfReady();
+	}
+
+	/**
+	 * Reports that a page was served, the first one is logged.
+	 */
+	public void pageServed() {
+		if (firstPageServed.compareAndSet(false, true)) {
+			logger.info("First page served " + getTimeSinceLoaded() + " ms after loading");
+		}
+	}
+
+	/**
+	 * @return {@code true} if the server is started and pages can be rendered
+	 */
+	public boolean isReady() {
+		return serverStarted && templates.getCount() == 0 && !failed;
+	}
+
+	/**
+	 * Waits for the template engine to be initialized.
+	 *
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return {@code true} if templates can be rendered
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted
+	 */
+	public boolean awaitTemplates(long timeout) throws InterruptedException {
+		return templates.await(timeout, TimeUnit.MILLISECONDS) && !failed;
+	}
+
+	private long getTimeSinceLoaded() {
+		return System.currentTimeMillis() - loaded;
+	}
+
+	private synchronized void logIfReady() {
+		if (isReady() && !readyLogged) {
+			readyLogged = true;
+			logger.info("Winterface ready " + getTimeSinceLoaded() + " ms after loading");
+		}
+	}
+
+}
@@ -23,6 +23,8 @@ public final class RequestsUtil {
 	public final static String PARAM_FORCE_DOWNLOAD = "forcedownload";
 	/** Parameter denoting MIME type */
 	public final static String PARAM_MIME = "type";
+	/** Parameter denoting to wait for the content instead of showing the fetch progress */
+	public final static String PARAM_NO_PROGRESS = "noprogress";
 	/** Header key for max size */
 	public final static String HEADER_MAX_SIZE = "max-size";
 	/** Header key for accepted MIME types */
@@ -32,9 +34,6 @@ public final class RequestsUtil {
 	public final static short MAX_RECURSION = 5;
 	// ?force= links become invalid after 2 hours.
 	public static final long FORCE_GRAIN_INTERVAL = 60 * 60 * 1000;
-	/** Maximum size for transparent pass-through, should be a config option */
-	// 2MB plus a bit due to buggy inserts
-	public static long MAX_LENGTH = (2 * 1024 * 1024 * 11) / 10;
 
 	/**
 	 * Avoid instantiation
@@ -11,14 +11,20 @@ import javax.servlet.http.HttpServlet;
 import freenet.winterface.web.Alerts;
 import freenet.winterface.web.Bookmarks;
 import freenet.winterface.web.Dashboard;
+import freenet.winterface.web.Download;
+import freenet.winterface.web.Fetching;
 import freenet.winterface.web.InvalidKey;
 import freenet.winterface.web.Plugins;
+import freenet.winterface.web.Progress;
+import freenet.winterface.web.Ready;
 import freenet.winterface.web.Root;
+import freenet.winterface.web.Statistics;
 import freenet.winterface.web.VelocityTest;
 
 public class Routes {
 	private final Class<? extends HttpServlet> errorPage = InvalidKey.class;
 	private final Class<? extends HttpServlet> dashboardPage = Dashboard.class;
+	private final Class<? extends HttpServlet> readinessCheck = Ready.class;
 	private final String notfoundTemplate = "invalidkey.vm";
 	
 	private Hashtable<Class<? extends HttpServlet>, ServletContext> k = new Hashtable<Class<? extends HttpServlet>, Routes.ServletContext>();
@@ -31,6 +37,11 @@ public class Routes {
 		addRoute(InvalidKey.class, "/invalidkey", true, "invalidkey.vm");
 		addRoute(Alerts.class, "/alerts", true, "alerts.vm");
 		addRoute(Bookmarks.class, "/bookmarkEditor", true, "bookmarks.vm");
+		addRoute(Statistics.class, "/statistics", true, "statistics.vm");
+		addRoute(Fetching.class, "/fetching", true, "fetching.vm");
+		addRoute(Progress.class, "/progress", true, null);
+		addRoute(Download.class, "/download", true, "download.vm");
+		addRoute(Ready.class, "/health/ready", false, null);
 		addRoute(VelocityTest.class, "/test", false, "test.vm");
 	}
 	
@@ -133,6 +144,10 @@ public class Routes {
 		return getPathFor(dashboardPage);
 	}
 	
+	public String getPathForReadiness() {
+		return getPathFor(readinessCheck);
+	}
+	
 	public String getTemplateFor(Class<?> servletClass) {
 		String template = k.get(servletClass).template;
 		if (template == null) {
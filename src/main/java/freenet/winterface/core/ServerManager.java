@@ -1,6 +1,8 @@
 package freenet.winterface.core;
 
+import java.io.IOException;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.Servlet;
@@ -11,9 +13,10 @@ import freenet.winterface.freenet.FreenetInterface;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.spi.ErrorHandler;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.bio.SocketConnector;
-import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.servlet.ErrorPageErrorHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
@@ -39,6 +42,17 @@ public class ServerManager {
 	 * An instance of running server
 	 */
 	private Server server;
+	/** Context of all servlets, refusing new requests while stopping */
+	private ServletContextHandler context;
+	/** Counts the requests in progress, which are waited for while stopping */
+	private StatisticsHandler statistics;
+	/** Configuration the server was started with, read again while stopping */
+	private Configuration config;
+	/** Interface to the node the server was started with, closed once it stopped */
+	private FreenetInterface freenetInterface;
+
+	/** Interval the requests in progress are counted at while stopping */
+	private final static long DRAIN_POLL_INTERVAL = 20;
 
 	/**
 	 * Log4j logger
@@ -49,6 +63,9 @@ public class ServerManager {
 	public static final String FREENET_INTERFACE = "freenet-interface";
 	public static final String WINTERFACE_ROUTES = "winterface-routes";
 	public static final String CONFIG_ID = "winterface-configuration";
+	public static final String ASSETS = "winterface-assets";
+	public static final String READINESS = "winterface-readiness";
+	public static final String THREAD_POOL = "winterface-thread-pool";
 	/**
 	 * Starts {@link Server} in the desired mode.
 	 * <p>
@@ -60,19 +77,27 @@ public class ServerManager {
 	 * Starting in development mode also makes Wicket to start in development
 	 * mode
 	 * </p>
+	 * <p>
+	 * Returns as soon as the server accepts connections, which is reported to the given
+	 * {@link Readiness}.
+	 * </p>
 	 * 
 	 * @param devMode
 	 *            {@code false} to start in deployment mode
 	 * @return running instance of {@link Server}
 	 */
-	public Server startServer(boolean devMode, final Configuration config, FreenetInterface freenetInterface, WinterfacePlugin winterfacePlugin) {
+	public Server startServer(boolean devMode, final Configuration config, FreenetInterface freenetInterface, WinterfacePlugin winterfacePlugin,
+			Readiness readiness) {
 		if (server == null) {
 			server = new Server();
+			initThreadPool(config);
 
 			// Bind
 			String[] hosts = config.getBindToHosts().split(",");
 			for (String host : hosts) {
-				SocketConnector connector = new SocketConnector();
+				// Idle connections wait in the selector, only requests take a thread
+				SelectChannelConnector connector = new SelectChannelConnector();
+				connector.setAcceptors(config.getAcceptors());
 				connector.setMaxIdleTime(config.getIdleTimeout());
 				connector.setSoLingerTime(-1);
 				connector.setHost(host);
@@ -81,15 +106,19 @@ public class ServerManager {
 			}
 
 			ServletContextHandler sch = new ServletContextHandler(ServletContextHandler.SESSIONS);
+			initOverloadFilter(sch, config);
 			initIPFilter(sch, config);
+			initCompressionFilter(sch, config);
 			initErrorHandlers(sch);
-			initStaticResources(sch);
+			initStaticResources(sch, config);
+			initStaticCacheFilter(sch);
 			sch.setContextPath("/");
 			
 			Routes routes = new Routes();
 			routes.initRoutes();
 			for (Class<? extends HttpServlet> servletClass : routes.getServletClasses()) {
-				sch.addServlet(servletClass, routes.getMatchFor(servletClass));
+				// Pages fetching from Freenet complete their responses asynchronously
+				sch.addServlet(servletClass, routes.getMatchFor(servletClass)).setAsyncSupported(true);
 			}
 
 			/*
@@ -101,13 +130,23 @@ public class ServerManager {
 			sch.setAttribute(FREENET_INTERFACE, freenetInterface);
 			sch.setAttribute(WINTERFACE_ROUTES, routes);
 			sch.setAttribute(CONFIG_ID, config);
+			sch.setAttribute(ASSETS, new Assets());
+			sch.setAttribute(READINESS, readiness);
+			if (server.getThreadPool() instanceof CountingThreadPool) {
+				sch.setAttribute(THREAD_POOL, server.getThreadPool());
+			}
 
-			server.setHandler(sch);
+			context = sch;
+			statistics = new StatisticsHandler();
+			statistics.setHandler(sch);
+			server.setHandler(statistics);
+			this.config = config;
+			this.freenetInterface = freenetInterface;
 
 			try {
 				logger.info("Starting Jetty Server on port " + config.getPort());
 				server.start();
-				server.join();
+				readiness.serverStarted();
 			} catch (Exception e) {
 				logger.error("Error by server startup!", e);
 			}
@@ -115,6 +154,43 @@ public class ServerManager {
 		return server;
 	}
 
+	/**
+	 * Initializes the pool of threads handling requests, also used by the connectors to accept
+	 * connections and select ready ones. In virtual threads mode, each request gets a virtual
+	 * thread of its own if the runtime supports them, so requests blocked on the node do not
+	 * use up the pool; the connectors get platform threads (see {@link VirtualThreadPool}).
+	 */
+	private void initThreadPool(Configuration config) {
+		if (config.isVirtualThreads()) {
+			ExecutorService executor = VirtualThreads.newExecutor();
+			if (executor != null) {
+				logger.info("Handling requests on virtual threads");
+				server.setThreadPool(new VirtualThreadPool(executor));
+				return;
+			}
+			logger.warn("Virtual threads need Java 24 or later, using a thread pool");
+		}
+		// The queue is not bounded, the OverloadFilter rejects requests instead
+		CountingThreadPool threadPool = new CountingThreadPool();
+		threadPool.setName("Winterface");
+		threadPool.setMinThreads(config.getMinThreads());
+		threadPool.setMaxThreads(config.getMaxThreads());
+		server.setThreadPool(threadPool);
+	}
+
+	/**
+	 * Initializes and configures {@link OverloadFilter}
+	 * 
+	 * @param sch
+	 *            parent {@link ServletContextHandler}
+	 */
+	private void initOverloadFilter(ServletContextHandler sch, Configuration config) {
+		FilterHolder fh = new FilterHolder(OverloadFilter.class);
+		fh.setInitParameter(OverloadFilter.MAX_QUEUED_PARAM, Integer.toString(config.getMaxQueuedRequests()));
+		fh.setAsyncSupported(true);
+		sch.addFilter(fh, "/*", EnumSet.of(DispatcherType.REQUEST));
+	}
+
 	/**
 	 * Initializes and configures {@link IPFilter}
 	 * 
@@ -124,9 +200,34 @@ public class ServerManager {
 	private void initIPFilter(ServletContextHandler sch, Configuration config) {
 		FilterHolder fh = new FilterHolder(IPFilter.class);
 		fh.setInitParameter(IPFilter.ALLOWED_HOSTS_PARAM, config.getAllowedHosts());
+		fh.setAsyncSupported(true);
+		sch.addFilter(fh, "/*", EnumSet.of(DispatcherType.REQUEST));
+	}
+
+	/**
+	 * Initializes and configures {@link CompressionFilter}
+	 * 
+	 * @param sch
+	 *            parent {@link ServletContextHandler}
+	 */
+	private void initCompressionFilter(ServletContextHandler sch, Configuration config) {
+		FilterHolder fh = new FilterHolder(CompressionFilter.class);
+		fh.setInitParameter(CompressionFilter.COMPRESSION_LEVEL_PARAM, Integer.toString(config.getCompressionLevel()));
+		fh.setAsyncSupported(true);
 		sch.addFilter(fh, "/*", EnumSet.of(DispatcherType.REQUEST));
 	}
 
+	/**
+	 * Initializes and configures {@link StaticCacheFilter}
+	 * 
+	 * @param sch
+	 *            parent {@link ServletContextHandler}
+	 */
+	private void initStaticCacheFilter(ServletContextHandler sch) {
+		FilterHolder fh = new FilterHolder(StaticCacheFilter.class);
+		sch.addFilter(fh, Assets.STATIC_PATH + "*", EnumSet.of(DispatcherType.REQUEST));
+	}
+
 	/**
 	 * Initializes and configures {@link ErrorHandler}s.
 	 * <p>
@@ -150,29 +251,52 @@ public class ServerManager {
 	/**
 	 * Creates and configures a new {@link Servlet} responsible for resources in
 	 * {@code static} folder.
+	 * <p>
+	 * The build minifies the style sheets and scripts, and writes a compressed {@code .gz}
+	 * variant next to each of them, which is sent instead if the browser accepts it. The
+	 * servlet starts with the server, so the files are loaded into memory before the first
+	 * request.
+	 * </p>
 	 * 
 	 * @param sch
 	 *            parent {@link ServletContextHandler}
+	 * @see StaticResourceServlet
 	 */
-	private void initStaticResources(ServletContextHandler sch) {
-		String staticPath = WinterfacePlugin.class.getClassLoader().getResource("static/").toExternalForm();
-		ServletHolder resourceServlet = new ServletHolder(DefaultServlet.class);
-		resourceServlet.setInitParameter("dirAllowed", "true");
-		resourceServlet.setInitParameter("resourceBase", staticPath);
-		resourceServlet.setInitParameter("pathInfoOnly", "true");
-		// if(DEV_MODE) {
-		// resourceServlet.setInitParameter("maxCacheSize", "0");
-		// }
-		sch.addServlet(resourceServlet, "/static/*");
-		logger.debug("Set Jetty to load static resources from " + staticPath);
+	private void initStaticResources(ServletContextHandler sch, Configuration config) {
+		ServletHolder resourceServlet = new ServletHolder(StaticResourceServlet.class);
+		resourceServlet.setInitParameter(StaticResourceServlet.MAX_CACHE_SIZE_PARAM, Long.toString(config.getStaticCacheSize()));
+		resourceServlet.setInitOrder(0);
+		sch.addServlet(resourceServlet, Assets.STATIC_PATH + "*");
 	}
 
 	/**
 	 * Terminates {@link Server} (if running)
+	 * <p>
+	 * The connectors are closed first, so new connections are refused, and requests arriving
+	 * on open connections are answered with {@link HttpServletResponse#SC_SERVICE_UNAVAILABLE}.
+	 * Requests in progress may finish within {@link Configuration#getShutdownTimeout()}, the
+	 * fetches of those which did not are cancelled when the servlets are destroyed. Finally, the
+	 * {@link FreenetInterface} is closed, so nothing is left running in the node.
+	 * </p>
 	 */
 	public void terminateServer() {
 		if (server != null) {
+			long started = System.currentTimeMillis();
 			try {
+				for (Connector connector : server.getConnectors()) {
+					try {
+						connector.close();
+					} catch (IOException e) {
+						logger.warn("Could not close connector " + connector, e);
+					}
+				}
+				context.setShutdown(true);
+				// The timeout may be changed while the server runs
+				int shutdownTimeout = config.getShutdownTimeout();
+				int remaining = drain(started + shutdownTimeout);
+				if (remaining > 0) {
+					logger.info(remaining + " requests did not finish within " + shutdownTimeout + " ms");
+				}
 				server.stop();
 				server.join();
 			} catch (InterruptedException e) {
@@ -180,6 +304,26 @@ public class ServerManager {
 			} catch (Exception e) {
 				logger.error("Error by server shutdown!", e);
 			}
+			freenetInterface.close();
+			logger.info("Server stopped in " + (System.currentTimeMillis() - started) + " ms");
+		}
+	}
+
+	/**
+	 * Waits for the requests in progress to finish.
+	 * 
+	 * @param deadline
+	 *            time to stop waiting at
+	 * @return number of requests still in progress
+	 * @throws InterruptedException
+	 *             if the stopping thread is interrupted
+	 */
+	private int drain(long deadline) throws InterruptedException {
+		int active = statistics.getRequestsActive();
+		while (active > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(DRAIN_POLL_INTERVAL);
+			active = statistics.getRequestsActive();
 		}
+		return active;
 	}
 }
@@ -0,0 +1,47 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * {@link Filter} letting browsers keep static files requested with their current
+ * {@link Assets fingerprint} for good, so pages referring to them do not revalidate them.
+ * Other requests for static files are left to the usual revalidation.
+ */
+public class StaticCacheFilter implements Filter {
+
+	/** Cache header of fingerprinted files, which never change */
+	private final static String IMMUTABLE = "public, max-age=31536000, immutable";
+
+	private Assets assets;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		assets = (Assets) filterConfig.getServletContext().getAttribute(ServerManager.ASSETS);
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		String path = httpRequest.getPathInfo();
+		String version = httpRequest.getParameter(Assets.VERSION_PARAM);
+		// An outdated fingerprint must not keep the current content forever
+		if (path != null && version != null && version.equals(assets.getFingerprint(path.substring(1)))) {
+			((HttpServletResponse) response).setHeader("Cache-Control", IMMUTABLE);
+		}
+		chain.doFilter(request, response);
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+}
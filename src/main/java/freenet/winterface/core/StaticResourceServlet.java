@@ -0,0 +1,274 @@
+package freenet.winterface.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.server.HttpOutput;
+
+import com.google.common.io.Resources;
+
+/**
+ * Serves the files in the {@code static} folder of the plugin.
+ * <p>
+ * The files are read from the plugin once, when the servlet starts, into direct buffers which
+ * are handed to the connector as they are, without copying them per request. Their headers
+ * ({@code Content-Length}, {@code Last-Modified}, {@code ETag}) are prepared at the same time.
+ * The gzipped variant written by the build is kept along with each file, and sent to browsers
+ * accepting it. Files which do not fit into the memory budget (see
+ * {@link Configuration#getStaticCacheSize()}) are read from the plugin on each request.
+ * </p>
+ */
+public class StaticResourceServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Servlet parameter name containing the memory budget in bytes */
+	public final static String MAX_CACHE_SIZE_PARAM = "maxCacheSize";
+
+	/** Classpath folder of the static files */
+	private final static String STATIC_RESOURCES = "static/";
+	/** Extension of the gzipped variants */
+	private final static String GZIP_EXTENSION = ".gz";
+	/** Size of the pieces data is written in if it can not be handed over as a whole */
+	private final static int CHUNK_SIZE = 8192;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(StaticResourceServlet.class);
+
+	/** Preloaded files by name, not changed after {@link #init()} */
+	private final Map<String, StaticResource> resources = new HashMap<String, StaticResource>();
+	private Assets assets;
+
+	@Override
+	public void init() throws ServletException {
+		assets = (Assets) getServletContext().getAttribute(ServerManager.ASSETS);
+		long maxCacheSize = Long.parseLong(getInitParameter(MAX_CACHE_SIZE_PARAM));
+		if (maxCacheSize <= 0) {
+			return;
+		}
+		long cacheSize = 0;
+		long started = System.currentTimeMillis();
+		for (String name : listResources(STATIC_RESOURCES)) {
+			if (name.endsWith(GZIP_EXTENSION)) {
+				continue;
+			}
+			try {
+				StaticResource resource = load(name, true);
+				if (resource == null || cacheSize + resource.size() > maxCacheSize) {
+					continue;
+				}
+				resources.put(name, resource);
+				cacheSize += resource.size();
+			} catch (IOException e) {
+				logger.warn("Could not preload static file " + name, e);
+			}
+		}
+		logger.debug("Preloaded " + resources.size() + " static files (" + cacheSize + " bytes) in "
+				+ (System.currentTimeMillis() - started) + " ms");
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String path = request.getPathInfo();
+		if (path == null || path.length() < 2 || path.contains("..")) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String name = path.substring(1);
+		StaticResource resource = resources.get(name);
+		if (resource == null) {
+			resource = load(name, false);
+			if (resource == null) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+		}
+		boolean gzip = resource.gzipped != null && "gzip".equals(CompressionFilter.selectEncoding(request.getHeader("Accept-Encoding")));
+		String etag = gzip ? resource.gzippedETag : resource.etag;
+		if (resource.gzipped != null) {
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+		if (resource.contentType != null) {
+			response.setContentType(resource.contentType);
+		}
+		if (resource.lastModified > 0) {
+			response.setDateHeader("Last-Modified", resource.lastModified);
+		}
+		if (etag != null) {
+			response.setHeader("ETag", etag);
+		}
+		if (isNotModified(request, resource, etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		if (gzip) {
+			response.setHeader("Content-Encoding", "gzip");
+		}
+		ByteBuffer content = gzip ? resource.gzipped : resource.content;
+		response.setContentLength(content.remaining());
+		write(response.getOutputStream(), content);
+	}
+
+	/**
+	 * Checks the conditional headers of a request, {@code If-None-Match} taking precedence.
+	 */
+	private static boolean isNotModified(HttpServletRequest request, StaticResource resource, String etag) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return etag != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"));
+		}
+		long ifModifiedSince = -1;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			// Malformed date, ignored
+		}
+		// Dates are sent in seconds
+		return ifModifiedSince >= 0 && resource.lastModified > 0 && resource.lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * Writes the content of a buffer, handing it to the connector as a whole if possible.
+	 */
+	private static void write(ServletOutputStream out, ByteBuffer content) throws IOException {
+		// Each request reads the shared buffer through a view of its own
+		ByteBuffer view = content.duplicate();
+		if (out instanceof HttpOutput && view.isDirect()) {
+			((HttpOutput) out).sendContent(new DirectNIOBuffer(view, true));
+			return;
+		}
+		byte[] chunk = new byte[Math.min(CHUNK_SIZE, view.remaining())];
+		while (view.hasRemaining()) {
+			int length = Math.min(chunk.length, view.remaining());
+			view.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+
+	/**
+	 * Reads a static file and its gzipped variant, if any.
+	 *
+	 * @param direct
+	 *            {@code true} to keep the data in direct buffers
+	 * @return the file, or {@code null} if there is no such file
+	 */
+	private StaticResource load(String name, boolean direct) throws IOException {
+		ClassLoader classLoader = StaticResourceServlet.class.getClassLoader();
+		URL url = classLoader.getResource(STATIC_RESOURCES + name);
+		if (url == null || name.endsWith("/")) {
+			return null;
+		}
+		URLConnection connection = url.openConnection();
+		long lastModified = connection.getLastModified();
+		ByteBuffer content = toBuffer(Resources.toByteArray(url), direct);
+		URL gzippedUrl = classLoader.getResource(STATIC_RESOURCES + name + GZIP_EXTENSION);
+		ByteBuffer gzipped = gzippedUrl != null ? toBuffer(Resources.toByteArray(gzippedUrl), direct) : null;
+		String fingerprint = assets != null ? assets.getFingerprint(name) : null;
+		return new StaticResource(content, gzipped, getServletContext().getMimeType(name), lastModified, fingerprint);
+	}
+
+	private static ByteBuffer toBuffer(byte[] data, boolean direct) {
+		if (!direct) {
+			return ByteBuffer.wrap(data);
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Lists the files in a classpath folder, which is either in the plugin's jar or, when
+	 * running from the sources, a folder.
+	 *
+	 * @param resources
+	 *            the folder, ending with a slash
+	 * @return paths of the files within the folder
+	 */
+	static List<String> listResources(String resources) {
+		List<String> names = new ArrayList<String>();
+		URL folder = StaticResourceServlet.class.getClassLoader().getResource(resources);
+		if (folder == null) {
+			return names;
+		}
+		try {
+			if ("jar".equals(folder.getProtocol())) {
+				JarURLConnection connection = (JarURLConnection) folder.openConnection();
+				JarFile jar = connection.getJarFile();
+				String prefix = connection.getEntryName();
+				Enumeration<JarEntry> entries = jar.entries();
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+						names.add(entry.getName().substring(prefix.length()));
+					}
+				}
+			} else if ("file".equals(folder.getProtocol())) {
+				listFiles(new File(folder.toURI()), "", names);
+			}
+		} catch (Exception e) {
+			logger.warn("Could not list files in " + folder, e);
+		}
+		return names;
+	}
+
+	private static void listFiles(File folder, String prefix, List<String> names) {
+		File[] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				listFiles(file, prefix + file.getName() + "/", names);
+			} else {
+				names.add(prefix + file.getName());
+			}
+		}
+	}
+
+	/**
+	 * A static file ready to be sent.
+	 */
+	private static class StaticResource {
+
+		final ByteBuffer content;
+		final ByteBuffer gzipped;
+		final String contentType;
+		final long lastModified;
+		final String etag;
+		final String gzippedETag;
+
+		StaticResource(ByteBuffer content, ByteBuffer gzipped, String contentType, long lastModified, String fingerprint) {
+			this.content = content;
+			this.gzipped = gzipped;
+			this.contentType = contentType;
+			this.lastModified = lastModified;
+			this.etag = fingerprint != null ? "\"" + fingerprint + "\"" : null;
+			this.gzippedETag = fingerprint != null ? "\"" + fingerprint + "-gzip\"" : null;
+		}
+
+		long size() {
+			return content.capacity() + (gzipped != null ? gzipped.capacity() : 0);
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package freenet.winterface.core;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+
+/**
+ * Loads templates from the classpath like {@link ClasspathResourceLoader}, but also tells when
+ * a template changed if it is read from a folder, i.e. when running from the sources. Together
+ * with a modification check interval, edited templates are then used without restarting. Templates
+ * in the plugin's jar never change.
+ */
+public class TemplateLoader extends ClasspathResourceLoader {
+
+	@Override
+	public boolean isSourceModified(Resource resource) {
+		long lastModified = getLastModified(resource);
+		return lastModified != 0 && lastModified != resource.getLastModified();
+	}
+
+	@Override
+	public long getLastModified(Resource resource) {
+		File file = getFile(resource.getName());
+		return file != null ? file.lastModified() : 0;
+	}
+
+	/**
+	 * @return the file of the given template, or {@code null} if it is not in a folder
+	 */
+	private static File getFile(String name) {
+		String path = name.startsWith("/") ? name.substring(1) : name;
+		URL url = TemplateLoader.class.getClassLoader().getResource(path);
+		if (url == null || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+}
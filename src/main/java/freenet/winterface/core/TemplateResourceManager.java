@@ -0,0 +1,82 @@
+package freenet.winterface.core;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.ResourceManagerImpl;
+
+import freenet.winterface.freenet.StatisticsProvider;
+
+/**
+ * Velocity's resource manager, counting how often templates are asked for (including those
+ * pulled in by {@code #parse}) and how often they had to be parsed. With the resource loader's
+ * cache enabled, each template is parsed once, and again only if it was modified.
+ * <p>
+ * The instance used by Velocity is available as the application attribute
+ * {@link #APPLICATION_ATTRIBUTE}.
+ * </p>
+ */
+public class TemplateResourceManager extends ResourceManagerImpl implements StatisticsProvider {
+
+	/** Velocity application attribute holding the resource manager */
+	public final static String APPLICATION_ATTRIBUTE = TemplateResourceManager.class.getName();
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong parses = new AtomicLong();
+
+	@Override
+	public synchronized void initialize(RuntimeServices rs) {
+		super.initialize(rs);
+		rs.setApplicationAttribute(APPLICATION_ATTRIBUTE, this);
+	}
+
+	@Override
+	public Resource getResource(String resourceName, int resourceType, String encoding) throws ResourceNotFoundException, ParseErrorException {
+		lookups.incrementAndGet();
+		return super.getResource(resourceName, resourceType, encoding);
+	}
+
+	@Override
+	protected Resource loadResource(String resourceName, int resourceType, String encoding) throws ResourceNotFoundException, ParseErrorException {
+		parses.incrementAndGet();
+		return super.loadResource(resourceName, resourceType, encoding);
+	}
+
+	@Override
+	protected Resource refreshResource(Resource resource, String encoding) throws ResourceNotFoundException, ParseErrorException {
+		Resource refreshed = super.refreshResource(resource, encoding);
+		// A modified template is parsed into a new resource
+		if (refreshed != resource) {
+			parses.incrementAndGet();
+		}
+		return refreshed;
+	}
+
+	/**
+	 * @return number of times a template was asked for
+	 */
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	/**
+	 * @return number of times a template was parsed
+	 */
+	public long getParses() {
+		return parses.get();
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		long lookups = getLookups();
+		long parses = getParses();
+		statistics.put("Statistics.templateLookups", lookups);
+		statistics.put("Statistics.templateParses", parses);
+		statistics.put("Statistics.templateCacheHitRate", lookups > 0 ? (lookups - parses) * 100 / lookups : 0);
+	}
+
+}
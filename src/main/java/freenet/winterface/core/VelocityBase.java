@@ -32,6 +32,9 @@ public abstract class VelocityBase extends VelocityViewServlet {
 	
 	private static final Escaper ESCAPER = new Escaper();
 
+	/** Time in milliseconds a page waits for the template engine while Winterface starts */
+	private static final long STARTUP_TIMEOUT = 30 * 1000;
+
 	protected String templateName;
 	private final I18n i18n;
 	private final WinterfaceConstants constants;
@@ -57,6 +60,7 @@ public abstract class VelocityBase extends VelocityViewServlet {
 	protected void fillContext(Context context, HttpServletRequest request) {
 		this.templateName = getTemplateFromRoutes(getClass());
 		context.put("esc", ESCAPER);
+		context.put("assets", getServletContext().getAttribute(ServerManager.ASSETS));
 		context.put("freenet", context.get(ServerManager.FREENET_INTERFACE));
 		context.put("winterface-routes", context.get(ServerManager.WINTERFACE_ROUTES));
 		context.put("fproxy", "http://127.0.0.1:" + ((FreenetInterface) context.get(ServerManager.FREENET_INTERFACE)).getFproxyPort());
@@ -67,6 +71,7 @@ public abstract class VelocityBase extends VelocityViewServlet {
 		context.put("i18n", i18n);
 		constants.addConstantsToContext(context);
 		context.put("page_title", new String("Freenet"));
+		context.put(FlushDirective.STREAMING_KEY, isStreaming());
 		subFillContext(context, request);
 	}
 
@@ -76,6 +81,44 @@ public abstract class VelocityBase extends VelocityViewServlet {
 	 */
 	protected abstract void subFillContext(Context context, HttpServletRequest request);
 
+	/**
+	 * Whether the head of the page and the navigation bar are sent before the content is
+	 * rendered, so the browser loads style sheets and scripts while the content waits for the
+	 * node. The response is committed then, so rendering the content can neither change its
+	 * status and headers nor turn it into an error page; only pages which just show data, and
+	 * ask the node for it while rendering, should stream.
+	 * 
+	 * @return {@code true} to render in streaming mode
+	 */
+	protected boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * Renders the page, waiting for the template engine if Winterface is still starting.
+	 */
+	@Override
+	protected void doRequest(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Readiness readiness = (Readiness) getServletContext().getAttribute(ServerManager.READINESS);
+		if (readiness != null) {
+			boolean ready;
+			try {
+				ready = readiness.awaitTemplates(STARTUP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				ready = false;
+			}
+			if (!ready) {
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				return;
+			}
+		}
+		super.doRequest(request, response);
+		if (readiness != null) {
+			readiness.pageServed();
+		}
+	}
+
 	@Override
 	protected Template getTemplate(HttpServletRequest request, HttpServletResponse response) {
 		return Velocity.getTemplate(templateFor("index.vm"));
@@ -0,0 +1,60 @@
+package freenet.winterface.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.jetty.io.nio.SelectorManager;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+
+/**
+ * Thread pool handling each request on a virtual thread. The connectors' acceptors and
+ * selectors run as long as the server does, and spend their time in blocking system calls;
+ * they get platform threads of their own instead.
+ */
+public class VirtualThreadPool extends ExecutorThreadPool {
+
+	/** Class of the jobs accepting connections, one per acceptor of a connector */
+	private final static String ACCEPTOR_CLASS = AbstractConnector.class.getName() + "$Acceptor";
+	/** Method of {@link SelectorManager} dispatching the selector loops, one per select set */
+	private final static String SELECTOR_START_METHOD = "doStart";
+
+	/**
+	 * @param executor
+	 *            executor starting a virtual thread for each task, see
+	 *            {@link VirtualThreads#newExecutor()}
+	 */
+	public VirtualThreadPool(ExecutorService executor) {
+		super(executor);
+	}
+
+	@Override
+	public boolean dispatch(Runnable job) {
+		if (!isConnectorJob(job)) {
+			return super.dispatch(job);
+		}
+		Thread thread = new Thread(job, "Winterface connector");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Returns whether the given job runs as long as its connector does, accepting connections
+	 * or selecting ready ones. Short jobs of the connectors, like the idle check the selectors
+	 * dispatch several times a second, run like requests.
+	 *
+	 * @return {@code true} for the acceptors and the selector loops
+	 */
+	static boolean isConnectorJob(Runnable job) {
+		Class<?> type = job.getClass();
+		if (type.getName().equals(ACCEPTOR_CLASS)) {
+			return true;
+		}
+		// The selector loops are anonymous, only the method starting them is known
+		Method enclosing = type.getEnclosingMethod();
+		return enclosing != null && enclosing.getDeclaringClass() == SelectorManager.class
+				&& enclosing.getName().equals(SELECTOR_START_METHOD);
+	}
+
+}
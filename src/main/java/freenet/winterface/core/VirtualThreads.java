@@ -0,0 +1,67 @@
+package freenet.winterface.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Access to virtual threads on Java runtimes which have them, without requiring them to build
+ * or run Winterface.
+ * <p>
+ * Requests block on the node like fred's {@code FetchWaiter} does, waiting in synchronized
+ * code. Before Java 24 that pins the virtual thread to its carrier, so a few blocked requests
+ * would stall all others; virtual threads are only used from Java 24 on.
+ * </p>
+ */
+public final class VirtualThreads {
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(VirtualThreads.class);
+
+	/** First Java version whose virtual threads do not pin their carrier waiting on a monitor */
+	private final static int UNPINNED_MONITORS_VERSION = 24;
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Creates an {@link ExecutorService} starting a new virtual thread for each task.
+	 *
+	 * @return the executor, or {@code null} if the runtime has no virtual threads, or ones which
+	 *         pin their carrier waiting on a monitor
+	 */
+	public static ExecutorService newExecutor() {
+		if (getJavaVersion() < UNPINNED_MONITORS_VERSION) {
+			return null;
+		}
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			// E.g. preview features not enabled on Java 19 and 20
+			logger.debug("Virtual threads are not available", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the major version of the Java runtime, e.g. 8 for Java 1.8
+	 */
+	static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version", "0");
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		int end = version.indexOf('.');
+		try {
+			return Integer.parseInt(end < 0 ? version : version.substring(0, end));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
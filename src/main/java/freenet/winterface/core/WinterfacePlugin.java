@@ -15,6 +15,7 @@ import freenet.node.Node;
 import freenet.pluginmanager.FredPlugin;
 import freenet.pluginmanager.FredPluginConfigurable;
 import freenet.pluginmanager.FredPluginHTTP;
+import freenet.pluginmanager.FredPluginThreadless;
 import freenet.pluginmanager.FredPluginVersioned;
 import freenet.pluginmanager.PluginHTTPException;
 import freenet.pluginmanager.PluginManager;
@@ -32,7 +33,7 @@ import freenet.winterface.freenet.PluginFreenetInterface;
  * @author pasub
  * 
  */
-public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPluginConfigurable, FredPluginHTTP {
+public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPluginConfigurable, FredPluginHTTP, FredPluginThreadless {
 
 	/**
 	 * {@link URL} at which {@link WinterfacePlugin} resides
@@ -73,6 +74,9 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 	 */
 	private final static boolean DEV_MODE = true;
 
+	/** Interval in seconds templates are checked for changes at in development mode */
+	private final static long TEMPLATE_CHECK_INTERVAL = 2;
+
 	/**
 	 * Log4j logger
 	 */
@@ -84,8 +88,13 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 		config = new Configuration();
 	}
 
+	/**
+	 * Starts the server and returns as soon as it accepts connections; the template engine is
+	 * initialized meanwhile (see {@link Readiness}).
+	 */
 	@Override
 	public void runPlugin(PluginRespirator pr) {
+		Readiness readiness = new Readiness();
 		node = pr.getNode();
 		
 		// Load path
@@ -96,17 +105,48 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 		// Register logger and so on
 		logger.debug("Loaded WinterFacePlugin on path " + plugin_path);
 
-		// Templates are stored in jars on the classpath.
-		Properties properties = new Properties();
-		properties.setProperty("resource.loader", "class");
-		properties.setProperty("class.resource.loader.class",
-		                       "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-
-		Velocity.init(properties);
+		initTemplates(readiness);
 
 		// initServer();
 		serverManager = new ServerManager();
-		serverManager.startServer(DEV_MODE, config, new NodeFreenetInterface(pr.getNode(), i18n), this);
+		serverManager.startServer(DEV_MODE, config, new NodeFreenetInterface(pr.getNode(), i18n, config), this, readiness);
+	}
+
+	/**
+	 * Initializes Velocity in a thread of its own, while the server starts.
+	 * <p>
+	 * Templates are parsed once and kept. In development mode, they are checked for changes
+	 * every {@link #TEMPLATE_CHECK_INTERVAL} seconds, so edited templates show up without
+	 * restarting when running from the sources (see {@link TemplateLoader}). Parts of pages
+	 * can be kept rendered with {@code #cached} (see {@link CachedDirective}), and pages can be
+	 * sent in parts with {@code #flush()} (see {@link FlushDirective}).
+	 * </p>
+	 */
+	private void initTemplates(final Readiness readiness) {
+		// Templates are stored in jars on the classpath.
+		final Properties properties = new Properties();
+		properties.setProperty("resource.manager.class", TemplateResourceManager.class.getName());
+		properties.setProperty("resource.loader", "class");
+		properties.setProperty("class.resource.loader.class", TemplateLoader.class.getName());
+		properties.setProperty("class.resource.loader.cache", "true");
+		properties.setProperty("class.resource.loader.modificationCheckInterval", Long.toString(DEV_MODE ? TEMPLATE_CHECK_INTERVAL : 0));
+		properties.setProperty("userdirective", CachedDirective.class.getName() + "," + FlushDirective.class.getName());
+		Velocity.setApplicationAttribute(FragmentCache.APPLICATION_ATTRIBUTE, new FragmentCache());
+
+		Thread initThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Velocity.init(properties);
+					readiness.templatesInitialized();
+				} catch (Exception e) {
+					logger.error("Could not initialize templates", e);
+					readiness.templatesFailed();
+				}
+			}
+		}, "Winterface template initialization");
+		initThread.setDaemon(true);
+		initThread.start();
 	}
 
 	@Override
@@ -146,21 +186,25 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 		redirectToWinterface = "<head><meta http-equiv=\"refresh\" content=\"0; url=http://127.0.0.1:" + config.getPort() + "\" /></head>Redirecting to Winterface... " + "http://127.0.0.1:" + config.getPort();
 	}
 	
+	/**
+	 * Restarts Winterface: the server stops once the requests in progress, including the one
+	 * asking for the reload, finished (see {@link ServerManager#terminateServer()}), and the
+	 * plugin is loaded again. The time the web interface was unavailable is logged.
+	 * 
+	 * @return {@code true}
+	 */
 	public boolean reload() {
 		//FIXME Use FCP messaging instead of the pluginManager directly
-		try {
-			Thread.sleep(SECONDS.toMillis(2));
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
 		final PluginManager pm = node.getPluginManager();
 		final String fn = PluginFreenetInterface.getPluginSpecification(pm, winterface_thread_name);
 		
+		long started = System.currentTimeMillis();
 		terminate();
+		long stopped = System.currentTimeMillis();
 		
+		// The new instance logs when it is ready, see Readiness
 		pm.startPluginAuto(fn, true);
+		logger.info("Reloaded in " + (System.currentTimeMillis() - started) + " ms (stopping took " + (stopped - started) + " ms)");
 		
 		pm.killPlugin(winterface_thread_name, MAX_THREADED_UNLOAD_WAIT_TIME, true);
 		//TODO Add purge option (remove from cache)
@@ -0,0 +1,82 @@
+package freenet.winterface.freenet;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+/**
+ * Base class for {@link FreenetURIFetcher}s which implements the waiting fetch methods on top
+ * of {@link #startFetch(FetchRequest, FetchCallback)}.
+ */
+public abstract class AbstractFreenetURIFetcher implements FreenetURIFetcher {
+
+    @Override
+    public FetchResult fetchURI(FreenetURI uri) throws FetchException {
+        return fetch(new FetchKey(uri, false), null);
+    }
+
+    @Override
+    public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
+        return fetch(new FetchKey(uri, true), null);
+    }
+
+    @Override
+    public FetchResult filteredFetchURI(FreenetURI uri, FetchOutput output) throws FetchException {
+        return fetch(new FetchKey(uri, true), output);
+    }
+
+    private FetchResult fetch(FetchKey key, FetchOutput output) throws FetchException {
+        WaitingCallback callback = new WaitingCallback();
+        FetchHandle handle = startFetch(new FetchRequest(key, output), callback);
+        return callback.await(handle);
+    }
+
+    /**
+     * {@link FetchCallback} the calling thread waits on.
+     */
+    private static class WaitingCallback implements FetchCallback {
+
+        private boolean done;
+        private FetchResult result;
+        private FetchException failure;
+
+        @Override
+        public synchronized void onSuccess(FetchResult result) {
+            this.result = result;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onFailure(FetchException e) {
+            this.failure = e;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the fetch to complete. If the waiting thread is interrupted, the fetch is
+         * cancelled, and its cancellation waited for.
+         */
+        synchronized FetchResult await(FetchHandle handle) throws FetchException {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    if (!interrupted) {
+                        interrupted = true;
+                        handle.cancel();
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+}
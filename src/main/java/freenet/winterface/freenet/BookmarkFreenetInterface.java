@@ -3,6 +3,7 @@ package freenet.winterface.freenet;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -24,6 +25,8 @@ public class BookmarkFreenetInterface{
 	private Node node;
 	private UserAlertManager uam;
 	private I18n i18n;
+	/** Incremented whenever bookmarks are changed through Winterface */
+	private final AtomicLong version = new AtomicLong();
 
 	public BookmarkFreenetInterface(Node node, I18n i18n) {
 		this(node, node.clientCore.getBookmarkManager(), i18n);
@@ -97,6 +100,7 @@ public class BookmarkFreenetInterface{
 			//TODO Send feeds to Darknet peers
 		}
 		bookmarkManager.storeBookmarks();
+		version.incrementAndGet();
 	}
 	
 	public void addCategory(String path, String name) {
@@ -112,6 +116,7 @@ public class BookmarkFreenetInterface{
 		if (newCategory != null) {
 			bookmarkManager.addBookmark(path, newCategory);
 			bookmarkManager.storeBookmarks();
+			version.incrementAndGet();
 		}
 	}
 
@@ -133,22 +138,26 @@ public class BookmarkFreenetInterface{
 		if (newBookmark != null) {
 			bookmarkManager.addBookmark(path, newBookmark);
 			bookmarkManager.storeBookmarks();
+			version.incrementAndGet();
 		}
 	}
 
 	public void removeBookmark(String path) {
 		bookmarkManager.removeBookmark(path);
 		bookmarkManager.storeBookmarks();
+		version.incrementAndGet();
 	}
 
 	public void moveBookmarkUp(String path, boolean store) {
 		bookmarkManager.moveBookmarkUp(path, store);
 		bookmarkManager.storeBookmarks();
+		version.incrementAndGet();
 	}
 
 	public void moveBookmarkDown(String path, boolean store) {
 		bookmarkManager.moveBookmarkDown(path, store);
 		bookmarkManager.storeBookmarks();
+		version.incrementAndGet();
 	}
 
 	public void storeBookmarks() {
@@ -157,6 +166,17 @@ public class BookmarkFreenetInterface{
 	
 	public void reAddDefaultBookmarks() {
 		bookmarkManager.reAddDefaultBookmarks();
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Returns a number which changes whenever bookmarks are changed through Winterface; changes
+	 * made elsewhere (e.g. in FProxy, or new editions of bookmarked sites) do not count.
+	 * 
+	 * @return the version of the bookmarks
+	 */
+	public long getVersion() {
+		return version.get();
 	}
 
 
@@ -0,0 +1,230 @@
+package freenet.winterface.freenet;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+import freenet.support.api.Bucket;
+
+/**
+ * {@link FreenetURIFetcher} which keeps recent results of the underlying fetcher, in the
+ * node's temporary buckets (i.e. in memory, unless they are large).
+ * <p>
+ * Results are kept in least recently used order until their total size exceeds the
+ * configured budget. Results of keys which never change (see
+ * {@link FreenetURIUtil#isImmutable(FreenetURI)}) stay until they are evicted, those of
+ * {@code USK@} and {@code KSK@} keys expire after {@link #MUTABLE_TTL}.
+ * </p>
+ * <p>
+ * The cache holds its own reference to each cached {@link ResultBucket}, callers get a
+ * reference of their own and free it as usual.
+ * </p>
+ */
+public class CachingFreenetURIFetcher extends AbstractFreenetURIFetcher implements StatisticsProvider {
+
+    /** Time after which the results of mutable keys are fetched again */
+    public static final long MUTABLE_TTL = MINUTES.toMillis(1);
+
+    private final FreenetURIFetcher fetcher;
+    private final long maxSize;
+
+    /** Cached results, least recently used first */
+    private final LinkedHashMap<FetchKey, CacheEntry> entries =
+            new LinkedHashMap<FetchKey, CacheEntry>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long prefetched;
+    private long prefetchHits;
+
+    /**
+     * @param fetcher the fetcher to cache the results of
+     * @param maxSize maximum total size of the cached results in bytes
+     */
+    public CachingFreenetURIFetcher(FreenetURIFetcher fetcher, long maxSize) {
+        if (fetcher == null) {
+            throw new NullPointerException();
+        }
+        this.fetcher = fetcher;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public FetchHandle startFetch(FetchRequest request, final FetchCallback callback) {
+        final FetchKey key = request.getKey();
+        // A cached result is complete already, the caller writes it as a whole
+        FetchResult result = get(key);
+        if (result != null) {
+            callback.onSuccess(result);
+            return FetchHandle.COMPLETED;
+        }
+        return fetcher.startFetch(request, new FetchCallback() {
+            @Override
+            public void onSuccess(FetchResult result) {
+                put(key, result);
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(FetchException e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Adds the result of a fetch made elsewhere, e.g. by the {@link Prefetcher}, to the cache.
+     * The caller keeps its reference to the result.
+     */
+    public synchronized void offer(FetchKey key, FetchResult result) {
+        if (put(key, result)) {
+            entries.get(key).prefetched = true;
+            prefetched++;
+        }
+    }
+
+    /**
+     * @return {@code true} if a fresh result for the given key is cached
+     */
+    public synchronized boolean contains(FetchKey key) {
+        CacheEntry entry = entries.get(key);
+        return entry != null && entry.expires > System.currentTimeMillis();
+    }
+
+    /**
+     * @return maximum total size of the cached results in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return total size of the cached results in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public void addStatistics(Map<String, Object> statistics) {
+        if (fetcher instanceof StatisticsProvider) {
+            ((StatisticsProvider) fetcher).addStatistics(statistics);
+        }
+        synchronized (this) {
+            statistics.put("Statistics.fetchCacheHits", hits);
+            statistics.put("Statistics.fetchCacheMisses", misses);
+            statistics.put("Statistics.fetchCacheEvictions", evictions);
+            statistics.put("Statistics.fetchCacheEntries", entries.size());
+            statistics.put("Statistics.fetchCacheSize", size);
+            statistics.put("Statistics.prefetchesCached", prefetched);
+            statistics.put("Statistics.prefetchHits", prefetchHits);
+        }
+    }
+
+    /**
+     * Returns the cached result for the given key, with a new reference to its bucket.
+     *
+     * @return the cached result, or {@code null} if there is none
+     */
+    private synchronized FetchResult get(FetchKey key) {
+        CacheEntry entry = entries.get(key);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (entry.prefetched) {
+            // Only the first use is one the prefetch saved waiting for
+            entry.prefetched = false;
+            prefetchHits++;
+        }
+        return new FetchResult(entry.metadata, entry.bucket.retain());
+    }
+
+    /**
+     * Adds the given result to the cache, evicting the least recently used results if
+     * the cache grows too big.
+     *
+     * @return {@code true} if the result was added
+     */
+    private synchronized boolean put(FetchKey key, FetchResult result) {
+        Bucket bucket = result.asBucket();
+        if (!(bucket instanceof ResultBucket)) {
+            return false;
+        }
+        long entrySize = bucket.size();
+        if (entrySize > maxSize) {
+            return false;
+        }
+        remove(key);
+        long expires = FreenetURIUtil.isImmutable(key.getURI()) ? Long.MAX_VALUE : System.currentTimeMillis() + MUTABLE_TTL;
+        entries.put(key, new CacheEntry(result.getMetadata(), ((ResultBucket) bucket).retain(), entrySize, expires));
+        size += entrySize;
+        Iterator<CacheEntry> lru = entries.values().iterator();
+        while (size > maxSize && lru.hasNext()) {
+            CacheEntry eldest = lru.next();
+            lru.remove();
+            size -= eldest.size;
+            eldest.bucket.free();
+            evictions++;
+        }
+        return entries.containsKey(key);
+    }
+
+    private void remove(FetchKey key) {
+        CacheEntry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+            entry.bucket.free();
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static class CacheEntry {
+
+        final ClientMetadata metadata;
+        final ResultBucket bucket;
+        final long size;
+        /** Time in milliseconds after which the entry is stale */
+        final long expires;
+        /** Whether the entry was prefetched and not used yet */
+        boolean prefetched;
+
+        CacheEntry(ClientMetadata metadata, ResultBucket bucket, long size, long expires) {
+            this.metadata = metadata;
+            this.bucket = bucket;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+}
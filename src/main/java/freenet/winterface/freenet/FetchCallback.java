@@ -0,0 +1,27 @@
+package freenet.winterface.freenet;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+
+/**
+ * Receives the outcome of a fetch started with
+ * {@link FreenetURIFetcher#startFetch(FetchRequest, FetchCallback)}.
+ * <p>
+ * Exactly one of the methods is called, exactly once. This may happen on one of the node's
+ * threads, so implementations should not block for long.
+ * </p>
+ */
+public interface FetchCallback {
+
+    /**
+     * Called when the fetch succeeded.
+     * @param result the result, which the callback has to free when it is done with it
+     */
+    public void onSuccess(FetchResult result);
+
+    /**
+     * Called when the fetch failed.
+     * @param e the reason the fetch failed
+     */
+    public void onFailure(FetchException e);
+}
@@ -0,0 +1,23 @@
+package freenet.winterface.freenet;
+
+/**
+ * Handle of a fetch started by {@link FreenetURIFetcher#startFetch(FetchRequest, FetchCallback)}.
+ */
+public interface FetchHandle {
+
+    /** Handle of a fetch which completed right away, there is nothing to cancel */
+    public static final FetchHandle COMPLETED = new FetchHandle() {
+        @Override
+        public void cancel() {
+            // nothing!
+        }
+    };
+
+    /**
+     * Cancels the fetch, e.g. because the browser it was made for went away. Unless the fetch
+     * completed already, its callback receives a
+     * {@link freenet.client.FetchException.FetchExceptionMode#CANCELLED CANCELLED} failure, which
+     * may happen before this method returns. Cancelling more than once has no further effect.
+     */
+    public void cancel();
+}
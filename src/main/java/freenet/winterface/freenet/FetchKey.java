@@ -0,0 +1,51 @@
+package freenet.winterface.freenet;
+
+import freenet.keys.FreenetURI;
+
+/**
+ * Identifies the result of a fetch: the {@link FreenetURI} fetched and whether the
+ * content was run through the content filter.
+ */
+public final class FetchKey {
+
+    private final FreenetURI uri;
+    private final boolean filterData;
+
+    public FetchKey(FreenetURI uri, boolean filterData) {
+        if (uri == null) {
+            throw new NullPointerException();
+        }
+        this.uri = uri;
+        this.filterData = filterData;
+    }
+
+    public FreenetURI getURI() {
+        return uri;
+    }
+
+    public boolean isFilterData() {
+        return filterData;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FetchKey)) {
+            return false;
+        }
+        FetchKey other = (FetchKey) o;
+        return filterData == other.filterData && uri.equals(other.uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return uri.hashCode() * 31 + (filterData ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return uri + (filterData ? " (filtered)" : "");
+    }
+}
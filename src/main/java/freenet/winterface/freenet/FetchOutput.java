@@ -0,0 +1,21 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination for the data of a streaming fetch.
+ *
+ * @see FreenetURIFetcher#filteredFetchURI(freenet.keys.FreenetURI, FetchOutput)
+ */
+public interface FetchOutput {
+
+    /**
+     * Opens the destination. This is called once, right before the first byte of the
+     * result is written, and possibly from a node thread.
+     * @param mimeType the expected MIME type of the result, or {@code null} if not known yet
+     * @return the stream the result is written to
+     * @throws IOException When the destination could not be opened.
+     */
+    public OutputStream open(String mimeType) throws IOException;
+}
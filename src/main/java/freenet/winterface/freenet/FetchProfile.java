@@ -0,0 +1,97 @@
+package freenet.winterface.freenet;
+
+import freenet.client.FetchContext;
+import freenet.node.RequestClient;
+import freenet.node.RequestStarter;
+
+/**
+ * The kinds of fetches Winterface makes, each with its own priority, real time flag, number of
+ * retries and content filtering.
+ * <p>
+ * The node's settings for a profile are built once with
+ * {@link #createTemplate(FetchContext, long)}, and each request gets a copy of that template
+ * instead of changing shared settings.
+ * </p>
+ */
+public enum FetchProfile {
+
+    /** A page the user navigated to and waits for */
+    INTERACTIVE_PAGE(RequestStarter.INTERACTIVE_PRIORITY_CLASS, true, true, 3),
+    /** Content embedded in a page: images, style sheets, ... */
+    INLINE_SUBRESOURCE(RequestStarter.IMMEDIATE_SPLITFILE_PRIORITY_CLASS, true, true, 2),
+    /** Content fetched before anyone asked for it, see {@link Prefetcher} */
+    BACKGROUND_PREFETCH(RequestStarter.PREFETCH_PRIORITY_CLASS, false, true, 1),
+    /** Raw data, as it was inserted */
+    BULK(RequestStarter.BULK_SPLITFILE_PRIORITY_CLASS, false, false, 3);
+
+    private final short priorityClass;
+    private final boolean realTime;
+    private final boolean filterData;
+    private final int maxRetries;
+    private final RequestClient requestClient;
+
+    private FetchProfile(short priorityClass, final boolean realTime, boolean filterData, int maxRetries) {
+        this.priorityClass = priorityClass;
+        this.realTime = realTime;
+        this.filterData = filterData;
+        this.maxRetries = maxRetries;
+        this.requestClient = new RequestClient() {
+            @Override
+            public boolean persistent() {
+                return false;
+            }
+
+            @Override
+            public boolean realTimeFlag() {
+                return realTime;
+            }
+        };
+    }
+
+    public short getPriorityClass() {
+        return priorityClass;
+    }
+
+    public boolean isRealTime() {
+        return realTime;
+    }
+
+    /**
+     * @return whether the content is run through the content filter
+     */
+    public boolean isFilterData() {
+        return filterData;
+    }
+
+    /**
+     * @return number of times a block is retried before the fetch fails
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return the (non-persistent) client to make requests of this profile for
+     */
+    public RequestClient getRequestClient() {
+        return requestClient;
+    }
+
+    /**
+     * Builds the settings for requests of this profile. The template must not be changed
+     * afterwards, requests get a copy of their own.
+     *
+     * @param defaults the node's default settings, e.g. from a {@code HighLevelSimpleClient}
+     * @param maxSize maximum size of the fetched file in bytes
+     * @return the template
+     */
+    public FetchContext createTemplate(FetchContext defaults, long maxSize) {
+        FetchContext template = new FetchContext(defaults, FetchContext.IDENTICAL_MASK, false, null);
+        template.filterData = filterData;
+        template.maxOutputLength = maxSize;
+        template.maxTempLength = maxSize;
+        template.maxSplitfileBlockRetries = maxRetries;
+        template.maxNonSplitfileRetries = maxRetries;
+        return template;
+    }
+}
@@ -0,0 +1,232 @@
+package freenet.winterface.freenet;
+
+import freenet.client.FetchException;
+import freenet.client.FetchException.FetchExceptionMode;
+import freenet.client.async.ClientContext;
+import freenet.client.events.ClientEvent;
+import freenet.client.events.ClientEventListener;
+import freenet.client.events.ExpectedFileSizeEvent;
+import freenet.client.events.ExpectedMIMEEvent;
+import freenet.client.events.SplitfileProgressEvent;
+import freenet.keys.FreenetURI;
+
+/**
+ * Progress of a single fetch, as reported by the node's {@link ClientEvent}s.
+ * <p>
+ * Fetches may wait for their turn first (see {@link SchedulingFreenetURIFetcher}), then start
+ * out resolving metadata (manifests, redirects, single-block files). Larger files
+ * are split into blocks, which are fetched next; once enough of them arrived, the node decodes
+ * the file and runs it through the content filter.
+ * </p>
+ */
+public class FetchProgress implements ClientEventListener {
+
+    /**
+     * The stages of a fetch.
+     */
+    public enum Phase {
+        QUEUED, METADATA, SPLITFILE, FILTERING, DONE, FAILED
+    }
+
+    private final long started = System.currentTimeMillis();
+    private Phase phase;
+    private int blocksFetched;
+    private int blocksRequired;
+    private int blocksTotal;
+    private int blocksFailed;
+    private boolean finalizedTotal;
+    private long expectedSize = -1;
+    private String expectedMimeType;
+    /** Time and number of fetched blocks when the first block progress was reported */
+    private long splitfileStarted;
+    private int splitfileStartBlocks;
+    private long finished;
+    private String failure;
+    private boolean tooBig;
+    /** Key the fetch was redirected to, e.g. a newer edition of a {@code USK@} */
+    private FreenetURI redirect;
+    /** Time somebody last looked at this progress */
+    private long watched = started;
+
+    public FetchProgress() {
+        this(false);
+    }
+
+    /**
+     * @param queued whether the fetch waits for its turn, see {@link #onStarted()}
+     */
+    FetchProgress(boolean queued) {
+        phase = queued ? Phase.QUEUED : Phase.METADATA;
+    }
+
+    @Override
+    public synchronized void receive(ClientEvent ce, ClientContext context) {
+        if (ce instanceof SplitfileProgressEvent) {
+            SplitfileProgressEvent event = (SplitfileProgressEvent) ce;
+            if (splitfileStarted == 0) {
+                splitfileStarted = System.currentTimeMillis();
+                splitfileStartBlocks = event.succeedBlocks;
+            }
+            blocksFetched = event.succeedBlocks;
+            blocksRequired = event.minSuccessfulBlocks;
+            blocksTotal = event.totalBlocks;
+            blocksFailed = event.failedBlocks + event.fatallyFailedBlocks;
+            finalizedTotal = event.finalizedTotal;
+            phase = finalizedTotal && blocksFetched >= blocksRequired ? Phase.FILTERING : Phase.SPLITFILE;
+        } else if (ce instanceof ExpectedFileSizeEvent) {
+            expectedSize = ((ExpectedFileSizeEvent) ce).expectedSize;
+        } else if (ce instanceof ExpectedMIMEEvent) {
+            expectedMimeType = ((ExpectedMIMEEvent) ce).expectedMIMEType;
+        }
+    }
+
+    /**
+     * Notes that the fetch stopped waiting for its turn.
+     */
+    synchronized void onStarted() {
+        if (phase == Phase.QUEUED) {
+            phase = Phase.METADATA;
+        }
+    }
+
+    synchronized void onSuccess() {
+        phase = Phase.DONE;
+        finished = System.currentTimeMillis();
+    }
+
+    synchronized void onFailure(FetchException e) {
+        phase = Phase.FAILED;
+        failure = e.toUserFriendlyString();
+        tooBig = e.getMode() == FetchExceptionMode.TOO_BIG;
+        if (e.getMode() == FetchExceptionMode.PERMANENT_REDIRECT) {
+            redirect = e.newURI;
+        }
+        if (e.expectedSize > 0) {
+            expectedSize = e.expectedSize;
+        }
+        if (e.expectedMimeType != null) {
+            expectedMimeType = e.expectedMimeType;
+        }
+        finished = System.currentTimeMillis();
+    }
+
+    public synchronized Phase getPhase() {
+        return phase;
+    }
+
+    public synchronized boolean isFinished() {
+        return phase == Phase.DONE || phase == Phase.FAILED;
+    }
+
+    public synchronized int getBlocksFetched() {
+        return blocksFetched;
+    }
+
+    /**
+     * @return number of blocks needed to decode the file
+     */
+    public synchronized int getBlocksRequired() {
+        return blocksRequired;
+    }
+
+    /**
+     * @return number of blocks the file has been split into, including redundant blocks
+     */
+    public synchronized int getBlocksTotal() {
+        return blocksTotal;
+    }
+
+    public synchronized int getBlocksFailed() {
+        return blocksFailed;
+    }
+
+    /**
+     * @return {@code true} if the number of blocks is final, i.e. all metadata is known
+     */
+    public synchronized boolean isFinalizedTotal() {
+        return finalizedTotal;
+    }
+
+    /**
+     * @return expected size of the file in bytes, or {@code -1} if not known yet
+     */
+    public synchronized long getExpectedSize() {
+        return expectedSize;
+    }
+
+    /**
+     * @return expected MIME type of the file, or {@code null} if not known yet
+     */
+    public synchronized String getExpectedMimeType() {
+        return expectedMimeType;
+    }
+
+    /**
+     * @return time in milliseconds since the fetch was queued or started, until it finished
+     */
+    public synchronized long getElapsedTime() {
+        return (finished != 0 ? finished : System.currentTimeMillis()) - started;
+    }
+
+    /**
+     * @return time in milliseconds since the fetch finished, or {@code -1} if it did not
+     */
+    public synchronized long getTimeSinceFinished() {
+        return finished != 0 ? System.currentTimeMillis() - finished : -1;
+    }
+
+    /**
+     * Notes that somebody, e.g. a browser showing the progress page, still waits for the fetch.
+     */
+    public synchronized void watch() {
+        watched = System.currentTimeMillis();
+    }
+
+    /**
+     * @return time in milliseconds since the progress was last {@link #watch() watched}, or
+     *         since the fetch started if it never was
+     */
+    public synchronized long getTimeSinceWatched() {
+        return System.currentTimeMillis() - watched;
+    }
+
+    /**
+     * Estimates the remaining time from the rate blocks arrived at so far.
+     *
+     * @return estimated time in milliseconds until all required blocks are fetched, or
+     *         {@code -1} if it can not be estimated yet
+     */
+    public synchronized long getEstimatedTimeRemaining() {
+        if (phase != Phase.SPLITFILE || !finalizedTotal) {
+            return -1;
+        }
+        int blocksSinceStart = blocksFetched - splitfileStartBlocks;
+        long timeSinceStart = System.currentTimeMillis() - splitfileStarted;
+        if (blocksSinceStart <= 0 || timeSinceStart <= 0) {
+            return -1;
+        }
+        return (blocksRequired - blocksFetched) * timeSinceStart / blocksSinceStart;
+    }
+
+    /**
+     * @return user friendly reason the fetch failed, or {@code null}
+     */
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return {@code true} if the fetch failed because the file is too big to be shown
+     */
+    public synchronized boolean isTooBig() {
+        return tooBig;
+    }
+
+    /**
+     * @return key the fetch was redirected to, e.g. a newer edition of a {@code USK@}, or
+     *         {@code null}
+     */
+    public synchronized FreenetURI getRedirect() {
+        return redirect;
+    }
+}
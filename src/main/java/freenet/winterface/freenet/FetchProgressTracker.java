@@ -0,0 +1,80 @@
+package freenet.winterface.freenet;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps the {@link FetchProgress} of running fetches, and of finished ones for
+ * {@link #RETENTION}, so pages waiting for a fetch can see how it ended.
+ */
+public class FetchProgressTracker {
+
+    /** Time the progress of finished fetches is kept */
+    public static final long RETENTION = MINUTES.toMillis(1);
+
+    private final Map<FetchKey, FetchProgress> progress = new HashMap<FetchKey, FetchProgress>();
+
+    /**
+     * Starts tracking a fetch which waits for its turn, replacing an earlier one for the same
+     * key.
+     *
+     * @return the progress to update
+     */
+    public synchronized FetchProgress queue(FetchKey key) {
+        purge();
+        FetchProgress fetchProgress = new FetchProgress(true);
+        progress.put(key, fetchProgress);
+        return fetchProgress;
+    }
+
+    /**
+     * Starts tracking a new fetch, replacing an earlier one for the same key. The progress of
+     * a fetch which waited for its turn is kept.
+     *
+     * @return the progress to update
+     */
+    public synchronized FetchProgress start(FetchKey key) {
+        purge();
+        FetchProgress fetchProgress = progress.get(key);
+        if (fetchProgress != null && fetchProgress.getPhase() == FetchProgress.Phase.QUEUED) {
+            fetchProgress.onStarted();
+            return fetchProgress;
+        }
+        fetchProgress = new FetchProgress();
+        progress.put(key, fetchProgress);
+        return fetchProgress;
+    }
+
+    /**
+     * @return progress of the latest fetch for the given key, or {@code null} if there is none
+     */
+    public synchronized FetchProgress get(FetchKey key) {
+        purge();
+        return progress.get(key);
+    }
+
+    /**
+     * @return number of fetches currently running
+     */
+    public synchronized int getRunningCount() {
+        int running = 0;
+        for (FetchProgress fetchProgress : progress.values()) {
+            if (!fetchProgress.isFinished()) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    private void purge() {
+        Iterator<FetchProgress> it = progress.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().getTimeSinceFinished() > RETENTION) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package freenet.winterface.freenet;
+
+/**
+ * A request for a fetch: what to fetch, where to stream it to, on whose behalf, and with which
+ * {@link FetchProfile}.
+ */
+public final class FetchRequest {
+
+    private final FetchKey key;
+    private final FetchOutput output;
+    private final String client;
+    private final FetchProfile profile;
+
+    /**
+     * Constructs a request of an unknown client, for an {@link FetchProfile#INTERACTIVE_PAGE
+     * interactive page} if the content is filtered and a {@link FetchProfile#BULK bulk} fetch
+     * otherwise.
+     * @param key the URI to fetch, and whether to filter its contents
+     * @param output the output to stream the data to, or {@code null}
+     */
+    public FetchRequest(FetchKey key, FetchOutput output) {
+        this(key, output, null, key.isFilterData() ? FetchProfile.INTERACTIVE_PAGE : FetchProfile.BULK);
+    }
+
+    /**
+     * @param key the URI to fetch, and whether to filter its contents
+     * @param output the output to stream the data to, or {@code null}
+     * @param client identifies the client (e.g. by its address), or {@code null} if unknown
+     * @param profile the kind of fetch
+     * @throws IllegalArgumentException if the profile does not filter the content as the key
+     *             says
+     */
+    public FetchRequest(FetchKey key, FetchOutput output, String client, FetchProfile profile) {
+        if (key == null || profile == null) {
+            throw new NullPointerException();
+        }
+        if (key.isFilterData() != profile.isFilterData()) {
+            throw new IllegalArgumentException("Profile " + profile + " does not match " + key);
+        }
+        this.key = key;
+        this.output = output;
+        this.client = client;
+        this.profile = profile;
+    }
+
+    public FetchKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return the output to stream the data to, or {@code null}
+     */
+    public FetchOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the client the fetch is made for, or {@code null} if unknown
+     */
+    public String getClient() {
+        return client;
+    }
+
+    public FetchProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return {@code true} for a page the user navigated to, {@code false} for content
+     *         embedded in a page (images, style sheets, ...) and other fetches
+     */
+    public boolean isMainDocument() {
+        return profile == FetchProfile.INTERACTIVE_PAGE;
+    }
+
+    @Override
+    public String toString() {
+        return key + " as " + profile + (client != null ? " for " + client : "");
+    }
+}
@@ -1,6 +1,8 @@
 package freenet.winterface.freenet;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import freenet.client.FetchException;
 import freenet.client.FetchResult;
@@ -28,6 +30,14 @@ public interface FreenetInterface extends FreenetURIFetcher {
 	String extRevisionNumber();
 	
 	ConnectionOverview getConnections();
+
+	/**
+	 * Returns a number which changes whenever the connection overview or the security levels
+	 * change.
+	 * 
+	 * @return the version of the connection status
+	 */
+	int getConnectionsVersion();
 	NETWORK_THREAT_LEVEL getNetworkThreatLevel();
 	PHYSICAL_THREAT_LEVEL getPhysicalThreatLevel();
 	
@@ -49,6 +59,13 @@ public interface FreenetInterface extends FreenetURIFetcher {
 	void moveBookmarkDown(String path, boolean store);
 	void storeBookmarks();
 	void reAddDefaultBookmarks();
+
+	/**
+	 * Returns a number which changes whenever bookmarks are changed through Winterface.
+	 * 
+	 * @return the version of the bookmarks
+	 */
+	long getBookmarksVersion();
 	
 	UserAlert[] getAlerts();
 	UserAlert[] getValidAlerts();	
@@ -58,4 +75,54 @@ public interface FreenetInterface extends FreenetURIFetcher {
 	int getAlertAnchorSafe(String anchorUnsafe);
 	int alertsHighestClass();
 
+	/**
+	 * Returns a number which changes whenever an alert becomes valid or invalid, or is updated.
+	 * 
+	 * @return the version of the valid alerts
+	 */
+	int getAlertsVersion();
+	
+	/**
+	 * Returns the counters of Winterface's Freenet related parts.
+	 * 
+	 * @return map from the localization key of each counter to its value
+	 */
+	Map<String, Object> getStatistics();
+
+	/**
+	 * Returns the progress of the latest fetch for the given key, running or recently finished.
+	 * 
+	 * @return the progress, or {@code null} if no such fetch is known
+	 */
+	FetchProgress getFetchProgress(FetchKey key);
+
+	/**
+	 * Returns the node's form password, which forms changing the node's state have to send
+	 * along, so other sites can not post them.
+	 * 
+	 * @return the form password
+	 */
+	String getFormPassword();
+
+	/**
+	 * Queues a persistent download of the given key on the node's global queue, saving the file
+	 * to the node's downloads directory.
+	 * 
+	 * @param uri
+	 *            the key to download
+	 * @param filterData
+	 *            whether to filter the file according to its MIME type
+	 * @param mimeType
+	 *            the expected MIME type, or {@code null} if unknown
+	 * @throws IOException
+	 *             if the download could not be queued
+	 */
+	void queueDownload(FreenetURI uri, boolean filterData, String mimeType) throws IOException;
+
+	/**
+	 * Stops the background work started for Winterface, such as prefetching and listening for
+	 * new editions of USK sites. Called once the server has stopped; the interface is not used afterwards.
+	 */
+	void close();
+
 }
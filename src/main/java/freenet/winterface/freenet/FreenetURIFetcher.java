@@ -26,5 +26,27 @@ public interface FreenetURIFetcher {
      * @throws FetchException When the fetch did not succeed, or the file could not be filtered.
      */
     public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException;
+
+    /*
+     * Fetch a file from Freenet and filter its contents according to its MIME type, passing the
+     * filtered data on to the given output while the node produces it. The output is only opened
+     * if there is data to write; the returned result holds the complete data either way.
+     * @param uri the URI of the file
+     * @param output the output to stream the filtered data to
+     * @throws FetchException When the fetch did not succeed, or the file could not be filtered.
+     * The output may already have received part of the data in that case.
+     */
+    public FetchResult filteredFetchURI(FreenetURI uri, FetchOutput output) throws FetchException;
+
+    /*
+     * Start a fetch from Freenet without waiting for it to complete. The callback receives the
+     * result or the failure, possibly before this method returns (e.g. for cached results).
+     * @param request the URI of the file, whether to filter its contents according to its MIME
+     * type, the output to stream the data to while the node produces it (if any), and the client
+     * the fetch is made for
+     * @param callback the callback to call once the fetch completed
+     * @return handle to cancel the fetch with
+     */
+    public FetchHandle startFetch(FetchRequest request, FetchCallback callback);
 }
 
@@ -0,0 +1,29 @@
+package freenet.winterface.freenet;
+
+import freenet.keys.FreenetURI;
+
+/**
+ * A Util class for {@link FreenetURI}s.
+ */
+public final class FreenetURIUtil {
+
+    /**
+     * Avoid instantiation
+     */
+    private FreenetURIUtil() {
+        // nothing!
+    }
+
+    /**
+     * Checks whether the content behind the given URI can ever change. This is the case for
+     * {@code CHK@} and {@code SSK@} keys (which includes the SSKs of pinned USK editions),
+     * but not for {@code USK@} keys, which may redirect to newer editions, or {@code KSK@} keys.
+     *
+     * @param uri the URI to check
+     * @return {@code true} if the URI always refers to the same content
+     */
+    public static boolean isImmutable(FreenetURI uri) {
+        String keyType = uri.getKeyType();
+        return "CHK".equalsIgnoreCase(keyType) || "SSK".equalsIgnoreCase(keyType);
+    }
+}
@@ -1,81 +1,203 @@
 package freenet.winterface.freenet;
 
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import freenet.client.FetchContext;
 import freenet.client.FetchException;
+import freenet.client.FetchException.FetchExceptionMode;
 import freenet.client.FetchResult;
-import freenet.client.FetchWaiter;
 import freenet.client.HighLevelSimpleClient;
+import freenet.client.async.ClientContext;
+import freenet.client.async.ClientGetCallback;
+import freenet.client.async.ClientGetter;
+import freenet.client.async.SnoopMetadata;
+import freenet.client.events.ClientEvent;
+import freenet.client.events.ClientEventListener;
+import freenet.client.events.ExpectedMIMEEvent;
 import freenet.keys.FreenetURI;
 import freenet.node.Node;
 import freenet.node.NodeClientCore;
 import freenet.node.RequestClient;
-import freenet.node.RequestStarter;
+import freenet.support.api.Bucket;
 
 /**
- * Fetch URIs through a {@link HighLevelSimpleClient} instance with interactive realtime priority.
+ * Fetch URIs through a {@link HighLevelSimpleClient} instance, with the priority and settings of the
+ * request's {@link FetchProfile}.
+ * <p>
+ * The result is written into a {@link ResultBucket} backed by the node's temporary buckets,
+ * so it can be streamed to a {@link FetchOutput} while the node decodes and filters it. No thread waits for the
+ * request; the node reports its outcome to the {@link FetchCallback}. Cancelling the
+ * {@link FetchHandle} cancels the request in the node, which frees its bucket.
+ * </p>
+ * <p>
+ * Given a {@link ManifestCache}, requests for files of a site edition whose manifest is known
+ * start from that manifest, and the manifests of other editions are recorded on the way.
+ * </p>
  *
  * @author bertm
  */
-public class InteractiveHLSCFreenetURIFetcher implements FreenetURIFetcher {
-    private static final short REQUEST_PRIORITY = RequestStarter.INTERACTIVE_PRIORITY_CLASS;
-    private static final boolean REQUEST_REALTIME = true;
-    private static final RequestClient REQUEST_CLIENT = new RequestClient() {
-        @Override
-        public boolean persistent() {
-            return false;
-        }
+public class InteractiveHLSCFreenetURIFetcher extends AbstractFreenetURIFetcher implements StatisticsProvider {
+    /** Settings of each profile, copied for each request and never changed */
+    private final EnumMap<FetchProfile, FetchContext> templates = new EnumMap<FetchProfile, FetchContext>(FetchProfile.class);
+    private final ClientContext context;
+    private final FetchProgressTracker progressTracker;
+    private final Prefetcher prefetcher;
+    private final ManifestCache manifestCache;
 
-        @Override
-        public boolean realTimeFlag() {
-            return REQUEST_REALTIME;
-        }
-    };
-    
-    private final HighLevelSimpleClient client;
-    
     /**
-     * Constructs a URI fetcher from the given {@link HighLevelSimpleClient}.
+     * Constructs a URI fetcher from the given {@link HighLevelSimpleClient}, starting its
+     * requests in the given {@link ClientContext} and reporting their progress to the given
+     * {@link FetchProgressTracker}. Links found while filtering are passed on to the given
+     * {@link Prefetcher}, if any. Files larger than the given maximum length fail with
+     * {@link FetchExceptionMode#TOO_BIG}; the node checks the size given in the metadata
+     * before it fetches the data. Manifests of site editions are kept in the given
+     * {@link ManifestCache}, if any.
      */
-    public InteractiveHLSCFreenetURIFetcher(HighLevelSimpleClient client) {
-        if (client == null) {
+    public InteractiveHLSCFreenetURIFetcher(HighLevelSimpleClient client, ClientContext context,
+            FetchProgressTracker progressTracker, Prefetcher prefetcher, long maxLength, ManifestCache manifestCache) {
+        if (client == null || context == null || progressTracker == null) {
             throw new NullPointerException();
         }
-        this.client = client;
+        FetchContext defaults = client.getFetchContext();
+        for (FetchProfile profile : FetchProfile.values()) {
+            templates.put(profile, profile.createTemplate(defaults, maxLength));
+        }
+        this.context = context;
+        this.progressTracker = progressTracker;
+        this.prefetcher = prefetcher;
+        this.manifestCache = manifestCache;
     }
 
     /**
      * Constructs a URI fetcher from a new {@link HighLevelSimpleClient} from the
      * {@link NodeClientCore}.
      */
-    public InteractiveHLSCFreenetURIFetcher(NodeClientCore clientCore) {
-        this(clientCore.makeClient(REQUEST_PRIORITY, true, REQUEST_REALTIME));
+    public InteractiveHLSCFreenetURIFetcher(NodeClientCore clientCore, FetchProgressTracker progressTracker,
+            Prefetcher prefetcher, long maxLength, ManifestCache manifestCache) {
+        this(clientCore.makeClient(FetchProfile.INTERACTIVE_PAGE.getPriorityClass(), true, true), clientCore.clientContext,
+                progressTracker, prefetcher, maxLength, manifestCache);
     }
 
     /**
      * Constructs a URI fetcher from a new {@link HighLevelSimpleClient} from the
      * {@link Node}'s {@link Node#clientCore clientCore}.
      */
-    public InteractiveHLSCFreenetURIFetcher(Node node) {
-        this(node.clientCore);
+    public InteractiveHLSCFreenetURIFetcher(Node node, FetchProgressTracker progressTracker, Prefetcher prefetcher,
+            long maxLength, ManifestCache manifestCache) {
+        this(node.clientCore, progressTracker, prefetcher, maxLength, manifestCache);
     }
 
     @Override
-    public FetchResult fetchURI(FreenetURI uri) throws FetchException {
-        return internalFetchURI(uri, false);
+    public FetchHandle startFetch(FetchRequest request, FetchCallback callback) {
+        FetchKey key = request.getKey();
+        FetchProfile profile = request.getProfile();
+        // Own event producer, so the listener below only hears about this request
+        FetchContext ctx = new FetchContext(templates.get(profile), FetchContext.IDENTICAL_MASK, false, null);
+        if (prefetcher != null && key.isFilterData()) {
+            ctx.prefetchHook = prefetcher.createHook(key.getURI());
+        }
+        final ResultBucket bucket;
+        try {
+            bucket = new ResultBucket(context.getBucketFactory(false), request.getOutput());
+        } catch (IOException e) {
+            callback.onFailure(new FetchException(FetchExceptionMode.BUCKET_ERROR, e));
+            return FetchHandle.COMPLETED;
+        }
+        ctx.eventProducer.addEventListener(new ClientEventListener() {
+            @Override
+            public void receive(ClientEvent ce, ClientContext context) {
+                if (ce instanceof ExpectedMIMEEvent) {
+                    bucket.setExpectedMimeType(((ExpectedMIMEEvent) ce).expectedMIMEType);
+                }
+            }
+        });
+        FetchProgress progress = progressTracker.start(key);
+        ctx.eventProducer.addEventListener(progress);
+        GetterCallback getterCallback = new GetterCallback(bucket, progress, callback, profile.getRequestClient());
+        // Skips resolving the site's metadata if its manifest is known already
+        Bucket manifest = manifestCache != null ? manifestCache.lookup(key.getURI()) : null;
+        final ClientGetter getter = new ClientGetter(getterCallback, key.getURI(), ctx, profile.getPriorityClass(), bucket,
+                null, manifest);
+        if (manifestCache != null && manifest == null) {
+            SnoopMetadata snoop = manifestCache.createSnoop(key.getURI());
+            if (snoop != null) {
+                getter.setMetaSnoop(snoop);
+            }
+        }
+        try {
+            getter.start(context);
+        } catch (FetchException e) {
+            getterCallback.onFailure(e, getter);
+        }
+        return new FetchHandle() {
+            @Override
+            public void cancel() {
+                // Stops the request in the node, the getter reports the cancellation as failure
+                getter.cancel(context);
+            }
+        };
     }
 
-    @Override    
-    public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
-        return internalFetchURI(uri, true);
+    @Override
+    public void addStatistics(Map<String, Object> statistics) {
+        if (manifestCache == null) {
+            return;
+        }
+        long lookups = manifestCache.getLookups();
+        long hits = manifestCache.getHits();
+        statistics.put("Statistics.manifestCacheLookups", lookups);
+        statistics.put("Statistics.manifestCacheHitRate", lookups > 0 ? hits * 100 / lookups : 0);
+        statistics.put("Statistics.manifestCacheAverageSaving", manifestCache.getAverageTimeSaved());
+        statistics.put("Statistics.manifestCacheEditions", manifestCache.getEditionCount());
     }
-    
-    private FetchResult internalFetchURI(FreenetURI uri, boolean filterData)
-            throws FetchException {
-        FetchWaiter waiter = new FetchWaiter(REQUEST_CLIENT);
-        FetchContext ctx = client.getFetchContext();
-        ctx.filterData = filterData;
-        client.fetch(uri, waiter, ctx, REQUEST_PRIORITY);
-        return waiter.waitForCompletion();
+
+    /*
+     * Passes the outcome of a ClientGetter on to the fetch's progress and to a FetchCallback,
+     * freeing the result bucket if the fetch failed. Only the first outcome is passed on, as a failure to start the request
+     * may be reported both to the callback and by ClientGetter.start().
+     */
+    private static class GetterCallback implements ClientGetCallback {
+        private final ResultBucket bucket;
+        private final FetchProgress progress;
+        private final FetchCallback callback;
+        private final RequestClient requestClient;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        GetterCallback(ResultBucket bucket, FetchProgress progress, FetchCallback callback, RequestClient requestClient) {
+            this.bucket = bucket;
+            this.progress = progress;
+            this.callback = callback;
+            this.requestClient = requestClient;
+        }
+
+        @Override
+        public void onSuccess(FetchResult result, ClientGetter state) {
+            if (done.compareAndSet(false, true)) {
+                progress.onSuccess();
+                callback.onSuccess(result);
+            }
+        }
+
+        @Override
+        public void onFailure(FetchException e, ClientGetter state) {
+            if (done.compareAndSet(false, true)) {
+                bucket.free();
+                progress.onFailure(e);
+                callback.onFailure(e);
+            }
+        }
+
+        @Override
+        public void onResume(ClientContext context) {
+            // Our requests are not persistent, so they are never resumed
+        }
+
+        @Override
+        public RequestClient getRequestClient() {
+            return requestClient;
+        }
     }
 }
-
@@ -0,0 +1,158 @@
+package freenet.winterface.freenet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import freenet.client.Metadata;
+import freenet.client.MetadataUnresolvedException;
+import freenet.client.async.ClientContext;
+import freenet.client.async.SnoopMetadata;
+import freenet.keys.FreenetURI;
+import freenet.support.api.Bucket;
+import freenet.support.io.ArrayBucket;
+
+/**
+ * Keeps the manifests of recently visited freesite editions, so further files of an edition
+ * can be fetched starting from its manifest instead of resolving the site's metadata again.
+ * <p>
+ * Manifests are learned while pages are fetched: the fetcher installs a
+ * {@link #createSnoop(FreenetURI) snoop} on the node's request, which records the site's
+ * manifest once the node comes across it. For sites inserted as a container, the manifest
+ * pointing to the container is recorded; the node keeps the container's content itself, and
+ * goes on from there. Only the {@link #MAX_EDITIONS} most recently used editions are kept.
+ * </p>
+ */
+public class ManifestCache {
+
+    /** Maximum number of editions kept */
+    public static final int MAX_EDITIONS = 64;
+
+    /** Manifests by the URI of their edition, least recently used first */
+    private final LinkedHashMap<FreenetURI, Manifest> manifests = new LinkedHashMap<FreenetURI, Manifest>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FreenetURI, Manifest> eldest) {
+            return size() > MAX_EDITIONS;
+        }
+    };
+    private long lookups;
+    private long hits;
+    private long timeSaved;
+
+    /**
+     * Returns the manifest of the given URI's edition, to start the node's request for it with.
+     *
+     * @param uri the URI of a file of a site
+     * @return the serialized manifest, or {@code null} if it is not known
+     */
+    public Bucket lookup(FreenetURI uri) {
+        FreenetURI edition = toEdition(uri);
+        if (edition == null) {
+            return null;
+        }
+        synchronized (this) {
+            lookups++;
+            Manifest manifest = manifests.get(edition);
+            if (manifest == null) {
+                return null;
+            }
+            hits++;
+            timeSaved += manifest.resolutionTime;
+            return new ArrayBucket(manifest.data);
+        }
+    }
+
+    /**
+     * Creates a snoop recording the manifest of the given URI's edition, to be installed on
+     * the node's request for it.
+     *
+     * @return the snoop, or {@code null} if the URI is not a file of a site edition
+     */
+    public SnoopMetadata createSnoop(FreenetURI uri) {
+        final FreenetURI edition = toEdition(uri);
+        if (edition == null) {
+            return null;
+        }
+        final long started = System.currentTimeMillis();
+        return new SnoopMetadata() {
+            private boolean done;
+
+            @Override
+            public boolean snoopMetadata(Metadata meta, ClientContext context) {
+                if (done) {
+                    return false;
+                }
+                if (meta.isArchiveMetadataRedirect() || meta.isArchiveInternalRedirect()) {
+                    // Points into a container whose manifest was not seen, nothing to start from
+                    done = true;
+                } else if (meta.isSimpleManifest() || meta.isArchiveManifest()) {
+                    // The first manifest is the site's, the node goes on from it (or from its
+                    // container) to the file
+                    done = true;
+                    try {
+                        record(edition, meta.writeToByteArray(), System.currentTimeMillis() - started);
+                    } catch (MetadataUnresolvedException e) {
+                        // Too big to write in one piece, leave it to the node
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return number of lookups of files of a site edition
+     */
+    public synchronized long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return number of lookups the manifest was known for
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return average time in milliseconds the node took to get to a manifest when it was
+     *         recorded, as saved by each hit, or {@code 0} if there were no hits
+     */
+    public synchronized long getAverageTimeSaved() {
+        return hits > 0 ? timeSaved / hits : 0;
+    }
+
+    public synchronized int getEditionCount() {
+        return manifests.size();
+    }
+
+    private synchronized void record(FreenetURI edition, byte[] data, long resolutionTime) {
+        manifests.put(edition, new Manifest(data, resolutionTime));
+    }
+
+    /**
+     * @return the URI of the site edition the given URI points into, or {@code null} if it
+     *         does not point to a file of a fixed edition
+     */
+    private static FreenetURI toEdition(FreenetURI uri) {
+        String keyType = uri.getKeyType();
+        boolean fixed = "SSK".equals(keyType) || ("USK".equals(keyType) && uri.getSuggestedEdition() >= 0);
+        if (!fixed || uri.getDocName() == null) {
+            return null;
+        }
+        return uri.setMetaString(null);
+    }
+
+    /**
+     * A serialized manifest, and the time the node took to get to it.
+     */
+    private static class Manifest {
+
+        final byte[] data;
+        final long resolutionTime;
+
+        Manifest(byte[] data, long resolutionTime) {
+            this.data = data;
+            this.resolutionTime = resolutionTime;
+        }
+    }
+}
@@ -4,10 +4,15 @@ import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.FluentIterable.from;
 import static java.util.Arrays.asList;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import freenet.client.FetchException;
 import freenet.client.FetchResult;
+import freenet.clients.fcp.NotAllowedException;
 import freenet.clients.http.bookmark.BookmarkCategory;
 import freenet.clients.http.bookmark.BookmarkItem;
 import freenet.keys.FreenetURI;
@@ -21,6 +26,7 @@ import freenet.node.SecurityLevels.NETWORK_THREAT_LEVEL;
 import freenet.node.SecurityLevels.PHYSICAL_THREAT_LEVEL;
 import freenet.node.useralerts.UserAlert;
 import freenet.support.SimpleFieldSet;
+import freenet.winterface.core.Configuration;
 import freenet.winterface.core.I18n;
 import freenet.winterface.freenet.BookmarkFreenetInterface.BookmarkCategoryWithPath;
 
@@ -42,22 +48,41 @@ public class NodeFreenetInterface implements FreenetInterface {
 	private final BookmarkFreenetInterface bmInterface;
 	private final PluginFreenetInterface pifInterface;
 	private final FreenetURIFetcher uriFetcher;
+	private final FetchProgressTracker progressTracker;
+	private final USKEditionIndex uskEditionIndex;
+	private final Prefetcher prefetcher;
 
 
-	public NodeFreenetInterface(Node node, I18n i18n) {
+	public NodeFreenetInterface(Node node, I18n i18n, Configuration config) {
+		this(node, i18n, config, new FetchProgressTracker(), new USKEditionIndex(node.clientCore.uskManager),
+				config.isPrefetch() ? new Prefetcher(node, config.getPrefetchConcurrency()) : null);
+	}
+
+	private NodeFreenetInterface(Node node, I18n i18n, Configuration config, FetchProgressTracker progressTracker,
+	        USKEditionIndex uskEditionIndex, Prefetcher prefetcher) {
 		this(node,
 			 node.peers,
 			 new BookmarkFreenetInterface(node, i18n),
 			 new UserAlertManagerInterface(node.clientCore.alerts),
 			 new PluginFreenetInterface(node),
 			 i18n,
-			 new InteractiveHLSCFreenetURIFetcher(node));
+			 createURIFetcher(node, config, progressTracker, uskEditionIndex, prefetcher),
+			 progressTracker,
+			 uskEditionIndex,
+			 prefetcher);
 	}
 
 	@VisibleForTesting
 	NodeFreenetInterface(Node node, PeerManager peerManager, BookmarkFreenetInterface bmInterface,
 	        UserAlertManagerInterface uamInterface, PluginFreenetInterface pifInterface, I18n i18n,
 	        FreenetURIFetcher uriFetcher) {
+		this(node, peerManager, bmInterface, uamInterface, pifInterface, i18n, uriFetcher, new FetchProgressTracker(), null, null);
+	}
+
+	private NodeFreenetInterface(Node node, PeerManager peerManager, BookmarkFreenetInterface bmInterface,
+	        UserAlertManagerInterface uamInterface, PluginFreenetInterface pifInterface, I18n i18n,
+	        FreenetURIFetcher uriFetcher, FetchProgressTracker progressTracker, USKEditionIndex uskEditionIndex,
+	        Prefetcher prefetcher) {
 		this.node = node;
 		this.peerManager = peerManager;
 		this.bmInterface = bmInterface;
@@ -65,6 +90,39 @@ public class NodeFreenetInterface implements FreenetInterface {
 		this.pifInterface = pifInterface;
 		this.i18n = i18n;
 		this.uriFetcher = uriFetcher;
+		this.progressTracker = progressTracker;
+		this.uskEditionIndex = uskEditionIndex;
+		this.prefetcher = prefetcher;
+	}
+	
+	/**
+	 * Creates the chain of {@link FreenetURIFetcher}s used to fetch content: results are served
+	 * from the cache if possible, otherwise concurrent requests for the same key share one fetch,
+	 * which waits its turn if too many are running already. If enabled, the content of filtered
+	 * pages is prefetched into the cache. Requests for old editions of known USK sites are
+	 * redirected before any of that.
+	 */
+	private static FreenetURIFetcher createURIFetcher(Node node, Configuration config, FetchProgressTracker progressTracker,
+	        USKEditionIndex uskEditionIndex, Prefetcher prefetcher) {
+		FreenetURIFetcher fetcher = new InteractiveHLSCFreenetURIFetcher(node, progressTracker, prefetcher, config.getMaxLength(),
+				new ManifestCache());
+		fetcher = new SchedulingFreenetURIFetcher(fetcher, config.getMaxConcurrentFetches(), progressTracker);
+		fetcher = new SharingFreenetURIFetcher(fetcher);
+		CachingFreenetURIFetcher cache = new CachingFreenetURIFetcher(fetcher, config.getFetchCacheSize());
+		if (prefetcher != null) {
+			prefetcher.start(cache);
+		}
+		return new USKEditionFreenetURIFetcher(cache, uskEditionIndex);
+	}
+
+	@Override
+	public void close() {
+		if (prefetcher != null) {
+			prefetcher.stop();
+		}
+		if (uskEditionIndex != null) {
+			uskEditionIndex.close();
+		}
 	}
 	
 	@Override
@@ -138,6 +196,14 @@ public class NodeFreenetInterface implements FreenetInterface {
 		return new ConnectionOverview(numberOfCurrentConnections, numberOfMaximumConnections);
 	}
 
+	@Override
+	public int getConnectionsVersion() {
+		int version = getNumberOfCurrentConnections();
+		version = 31 * version + getNumberOfMaximumConnections();
+		version = 31 * version + getNetworkThreatLevel().ordinal();
+		return 31 * version + getPhysicalThreatLevel().ordinal();
+	}
+
 	private int getNumberOfCurrentConnections() {
 		return peerManager.countConnectedPeers();
 	}
@@ -254,6 +320,11 @@ public class NodeFreenetInterface implements FreenetInterface {
 		bmInterface.reAddDefaultBookmarks();
 	}
 	
+	@Override
+	public long getBookmarksVersion() {
+		return bmInterface.getVersion();
+	}
+	
 	@Override
 	public UserAlert[] getAlerts() {
 		return uamInterface.getAlerts();
@@ -289,6 +360,42 @@ public class NodeFreenetInterface implements FreenetInterface {
 		return uamInterface.alertsHighestClass();
 	}
 	
+	@Override
+	public int getAlertsVersion() {
+		return uamInterface.getVersion();
+	}
+	
+	@Override
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("Statistics.fetchesRunning", progressTracker.getRunningCount());
+		if (uriFetcher instanceof StatisticsProvider) {
+			((StatisticsProvider) uriFetcher).addStatistics(statistics);
+		}
+		return statistics;
+	}
+
+	@Override
+	public FetchProgress getFetchProgress(FetchKey key) {
+		return progressTracker.get(key);
+	}
+
+	@Override
+	public String getFormPassword() {
+		return node.clientCore.formPassword;
+	}
+
+	@Override
+	public void queueDownload(FreenetURI uri, boolean filterData, String mimeType) throws IOException {
+		File downloadsDir = node.clientCore.getDownloadsDir();
+		try {
+			// Persistent global requests run at bulk priority and show up on FProxy's downloads page
+			node.clientCore.getFCPServer().makePersistentGlobalRequestBlocking(uri, filterData, mimeType, "forever", "disk", false, downloadsDir);
+		} catch (NotAllowedException e) {
+			throw new IOException("Not allowed to download to " + downloadsDir, e);
+		}
+	}
+
     @Override
     public FetchResult fetchURI(FreenetURI uri) throws FetchException {
         return uriFetcher.fetchURI(uri);
@@ -297,6 +404,16 @@ public class NodeFreenetInterface implements FreenetInterface {
     @Override
     public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
         return uriFetcher.filteredFetchURI(uri);
-    }	
+    }
+
+    @Override
+    public FetchResult filteredFetchURI(FreenetURI uri, FetchOutput output) throws FetchException {
+        return uriFetcher.filteredFetchURI(uri, output);
+    }
+
+    @Override
+    public FetchHandle startFetch(FetchRequest request, FetchCallback callback) {
+        return uriFetcher.startFetch(request, callback);
+    }
 }
 
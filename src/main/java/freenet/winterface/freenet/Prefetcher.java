@@ -0,0 +1,350 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import freenet.client.FetchContext;
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.client.HighLevelSimpleClient;
+import freenet.client.async.ClientContext;
+import freenet.client.async.ClientGetCallback;
+import freenet.client.async.ClientGetter;
+import freenet.client.filter.FoundURICallback;
+import freenet.keys.FreenetURI;
+import freenet.node.Node;
+import freenet.node.RequestClient;
+import freenet.support.HexUtil;
+
+/**
+ * Fetches the images, style sheets and same-site links the content filter finds on a page, so
+ * they are in the {@link CachingFreenetURIFetcher cache} by the time the browser asks for them.
+ * <p>
+ * Prefetches run with the {@link FetchProfile#BACKGROUND_PREFETCH} profile, so they never compete
+ * with pages the user waits for. Only a limited number of them run at once, both in total and per
+ * site; sites take turns, and inline content goes before links. Results which would not fit
+ * into the cache are not fetched at all. Only the {@link #MAX_SITES} sites most recently visited
+ * are kept waiting.
+ * </p>
+ */
+public class Prefetcher {
+
+    private static final Logger logger = Logger.getLogger(Prefetcher.class);
+
+    private static final FetchProfile PROFILE = FetchProfile.BACKGROUND_PREFETCH;
+
+    /** Number of prefetches which may run at once for a single site */
+    public static final int MAX_RUNNING_PER_SITE = 2;
+    /** Number of URIs which may wait to be prefetched for a single site */
+    public static final int MAX_QUEUED_PER_SITE = 64;
+    /** Number of sites which may have prefetches waiting or running */
+    public static final int MAX_SITES = 32;
+
+    private final HighLevelSimpleClient client;
+    private final ClientContext context;
+    private final int maxRunning;
+    private volatile CachingFreenetURIFetcher cache;
+    /** Settings of all prefetches, copied for each of them and never changed */
+    private volatile FetchContext template;
+
+    /** Sites with waiting or running prefetches, in the order they take turns */
+    private final LinkedHashMap<String, Site> sites = new LinkedHashMap<String, Site>();
+    /** Keys waiting or running, so each is only prefetched once */
+    private final Set<FetchKey> pending = new HashSet<FetchKey>();
+    /** Prefetches running, cancelled when stopping */
+    private final Set<ClientGetter> getters = new HashSet<ClientGetter>();
+    private int running;
+    /** Counts the pages queueing links, to find the site visited longest ago */
+    private long visits;
+    private boolean stopped;
+
+    /**
+     * @param maxRunning maximum number of prefetches running at once
+     */
+    public Prefetcher(Node node, int maxRunning) {
+        this(node.clientCore.makeClient(PROFILE.getPriorityClass(), true, PROFILE.isRealTime()), node.clientCore.clientContext, maxRunning);
+    }
+
+    public Prefetcher(HighLevelSimpleClient client, ClientContext context, int maxRunning) {
+        if (client == null || context == null) {
+            throw new NullPointerException();
+        }
+        this.client = client;
+        this.context = context;
+        this.maxRunning = maxRunning;
+    }
+
+    /**
+     * Starts prefetching into the given cache. Links found before are ignored.
+     */
+    public void start(CachingFreenetURIFetcher cache) {
+        // Nothing bigger than the cache is any use
+        template = PROFILE.createTemplate(client.getFetchContext(), cache.getMaxSize());
+        this.cache = cache;
+    }
+
+    /**
+     * Stops prefetching: waiting prefetches are dropped, running ones are cancelled, and nothing
+     * is queued afterwards.
+     */
+    public void stop() {
+        List<ClientGetter> cancelled;
+        synchronized (this) {
+            stopped = true;
+            sites.clear();
+            pending.clear();
+            cancelled = new ArrayList<ClientGetter>(getters);
+            getters.clear();
+        }
+        for (ClientGetter getter : cancelled) {
+            getter.cancel(context);
+        }
+    }
+
+    /**
+     * Creates the {@link FoundURICallback} to give to the content filter for a page.
+     *
+     * @param page the URI of the page being filtered
+     * @return the callback queueing the page's links for prefetching
+     */
+    public FoundURICallback createHook(FreenetURI page) {
+        return new PageHook(page);
+    }
+
+    private void queue(FreenetURI page, FreenetURI uri, boolean inline) {
+        CachingFreenetURIFetcher cache = this.cache;
+        if (cache == null) {
+            return;
+        }
+        // Root fetches filtered content, so that is what is cached for it
+        FetchKey key = new FetchKey(uri, true);
+        if (cache.contains(key)) {
+            return;
+        }
+        String siteId = page.getRoutingKey() != null ? HexUtil.bytesToHex(page.getRoutingKey()) : page.toString();
+        synchronized (this) {
+            if (stopped || pending.contains(key)) {
+                return;
+            }
+            Site site = sites.get(siteId);
+            if (site == null) {
+                if (sites.size() >= MAX_SITES && !dropIdleSite()) {
+                    return;
+                }
+                site = new Site(siteId);
+                sites.put(siteId, site);
+            }
+            site.visited = visits++;
+            if (site.queued() >= MAX_QUEUED_PER_SITE) {
+                return;
+            }
+            (inline ? site.inline : site.links).add(key);
+            pending.add(key);
+        }
+        schedule();
+    }
+
+    /**
+     * Drops the waiting prefetches of the site visited longest ago which has none running.
+     *
+     * @return {@code false} if all sites have prefetches running
+     */
+    private boolean dropIdleSite() {
+        Site oldest = null;
+        for (Site site : sites.values()) {
+            if (site.running == 0 && (oldest == null || site.visited < oldest.visited)) {
+                oldest = site;
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        sites.remove(oldest.id);
+        pending.removeAll(oldest.inline);
+        pending.removeAll(oldest.links);
+        return true;
+    }
+
+    /**
+     * Starts waiting prefetches as long as the limits allow.
+     */
+    private void schedule() {
+        while (true) {
+            Site site = null;
+            FetchKey key = null;
+            synchronized (this) {
+                if (stopped || running >= maxRunning) {
+                    return;
+                }
+                Iterator<Site> it = sites.values().iterator();
+                while (it.hasNext()) {
+                    Site candidate = it.next();
+                    if (candidate.running < MAX_RUNNING_PER_SITE && candidate.queued() > 0) {
+                        site = candidate;
+                        break;
+                    }
+                }
+                if (site == null) {
+                    return;
+                }
+                key = site.inline.isEmpty() ? site.links.poll() : site.inline.poll();
+                site.running++;
+                running++;
+                // Let the other sites go first next time
+                sites.remove(site.id);
+                sites.put(site.id, site);
+            }
+            fetch(site, key);
+        }
+    }
+
+    private void fetch(final Site site, final FetchKey key) {
+        FetchContext ctx = new FetchContext(template, FetchContext.IDENTICAL_MASK, false, null);
+        final ResultBucket bucket;
+        try {
+            bucket = new ResultBucket(context.getBucketFactory(false), null);
+        } catch (IOException e) {
+            logger.debug("Could not prefetch " + key, e);
+            finished(site, key, null);
+            return;
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        ClientGetCallback callback = new ClientGetCallback() {
+            @Override
+            public void onSuccess(FetchResult result, ClientGetter state) {
+                if (done.compareAndSet(false, true)) {
+                    cache.offer(key, result);
+                    result.asBucket().free();
+                    finished(site, key, state);
+                }
+            }
+
+            @Override
+            public void onFailure(FetchException e, ClientGetter state) {
+                if (done.compareAndSet(false, true)) {
+                    logger.debug("Prefetch of " + key + " failed", e);
+                    bucket.free();
+                    finished(site, key, state);
+                }
+            }
+
+            @Override
+            public void onResume(ClientContext context) {
+                // Our requests are not persistent, so they are never resumed
+            }
+
+            @Override
+            public RequestClient getRequestClient() {
+                return PROFILE.getRequestClient();
+            }
+        };
+        ClientGetter getter = new ClientGetter(callback, key.getURI(), ctx, PROFILE.getPriorityClass(), bucket, null, null);
+        boolean stopping;
+        synchronized (this) {
+            stopping = stopped;
+            if (!stopping) {
+                getters.add(getter);
+            }
+        }
+        if (stopping) {
+            bucket.free();
+            finished(site, key, null);
+            return;
+        }
+        try {
+            getter.start(context);
+        } catch (FetchException e) {
+            callback.onFailure(e, getter);
+        }
+    }
+
+    private void finished(Site site, FetchKey key, ClientGetter getter) {
+        synchronized (this) {
+            pending.remove(key);
+            getters.remove(getter);
+            site.running--;
+            running--;
+            // The site may have been dropped and visited again since
+            if (site.running == 0 && site.queued() == 0 && sites.get(site.id) == site) {
+                sites.remove(site.id);
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Queues the links the content filter finds on a page.
+     */
+    private class PageHook implements FoundURICallback {
+
+        private final FreenetURI page;
+
+        PageHook(FreenetURI page) {
+            this.page = page;
+        }
+
+        @Override
+        public void foundURI(FreenetURI uri) {
+            foundURI(uri, false);
+        }
+
+        @Override
+        public void foundURI(FreenetURI uri, boolean inline) {
+            // Content shown on the page is needed right away; of the links, only those staying on
+            // the site are likely to be followed
+            if (inline || isSameSite(uri)) {
+                queue(page, uri, inline);
+            }
+        }
+
+        @Override
+        public void onText(String text, String type, URI baseURI) {
+            // nothing!
+        }
+
+        @Override
+        public void onFinishedPage() {
+            // nothing!
+        }
+
+        /*
+         * Same routing key, i.e. the same SSK or USK author. CHKs are unique per file anyway.
+         */
+        private boolean isSameSite(FreenetURI uri) {
+            return page.getRoutingKey() != null && Arrays.equals(page.getRoutingKey(), uri.getRoutingKey());
+        }
+    }
+
+    /**
+     * Waiting and running prefetches of a site.
+     */
+    private static class Site {
+
+        final String id;
+        final Deque<FetchKey> inline = new ArrayDeque<FetchKey>();
+        final Deque<FetchKey> links = new ArrayDeque<FetchKey>();
+        int running;
+        /** When the site last queued links, in page visits */
+        long visited;
+
+        Site(String id) {
+            this.id = id;
+        }
+
+        int queued() {
+            return inline.size() + links.size();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+
+import freenet.support.api.Bucket;
+import freenet.support.api.BucketFactory;
+import freenet.support.io.ArrayBucket;
+import freenet.support.io.NoFreeBucket;
+
+/**
+ * {@link Bucket} the node writes the result of a fetch into, storing it in another bucket;
+ * usually one of the node's temporary buckets, which keep small results in memory and move
+ * larger ones to disk.
+ * <p>
+ * If a {@link FetchOutput} is given, every byte the node writes is passed on to it right
+ * away, so the decoded (and filtered) data reaches the browser while the node is still
+ * producing it. The output must not block the node's thread. The bucket always keeps its own
+ * copy; if the output fails (e.g. the browser went away) it is simply not written to anymore
+ * and the fetch carries on.
+ * </p>
+ * <p>
+ * A result may be handed to several callers. Each caller calls {@link #free()} once when it
+ * is done, the data is only released after the last one did so; see {@link #retain()}.
+ * </p>
+ */
+public class ResultBucket extends NoFreeBucket {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = Logger.getLogger(ResultBucket.class);
+
+    /** Size the storage is created for, the node's buckets grow beyond it as needed */
+    private static final long EXPECTED_SIZE = 64 * 1024;
+
+    /** Holds the data, everything but freeing is passed on to it by NoFreeBucket */
+    private final Bucket storage;
+    private final FetchOutput output;
+    private volatile String expectedMimeType;
+    private int references = 1;
+
+    /**
+     * Constructs a bucket which only keeps the result, in memory.
+     */
+    public ResultBucket() {
+        this(new ArrayBucket(), null);
+    }
+
+    /**
+     * Constructs a bucket which keeps the result in a bucket from the given factory, and
+     * passes it on to the given output while it is written.
+     * @param bucketFactory the factory creating the storage
+     * @param output the output to stream to, or {@code null}
+     * @throws IOException if the storage could not be created
+     */
+    public ResultBucket(BucketFactory bucketFactory, FetchOutput output) throws IOException {
+        this(bucketFactory.makeBucket(EXPECTED_SIZE), output);
+    }
+
+    private ResultBucket(Bucket storage, FetchOutput output) {
+        super(storage);
+        this.storage = storage;
+        this.output = output;
+    }
+
+    /**
+     * Sets the MIME type the output is opened with, if it has not been opened yet.
+     */
+    public void setExpectedMimeType(String mimeType) {
+        expectedMimeType = mimeType;
+    }
+
+    /**
+     * Adds a reference to this bucket, which has to be released with {@link #free()}.
+     * @return this bucket
+     * @throws IllegalStateException if the bucket has already been freed
+     */
+    public synchronized ResultBucket retain() {
+        if (references == 0) {
+            throw new IllegalStateException("Bucket has already been freed");
+        }
+        references++;
+        return this;
+    }
+
+    /**
+     * Releases a reference to this bucket, freeing the data once no references are left.
+     */
+    @Override
+    public void free() {
+        synchronized (this) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+        }
+        storage.free();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        OutputStream out = super.getOutputStream();
+        if (output == null) {
+            return out;
+        }
+        return new StreamingOutputStream(out);
+    }
+
+    /**
+     * Writes to the bucket and to the {@link FetchOutput}, opening the latter on first write.
+     */
+    private class StreamingOutputStream extends OutputStream {
+
+        private final OutputStream bucketOut;
+        private OutputStream clientOut;
+        private boolean clientFailed;
+
+        StreamingOutputStream(OutputStream bucketOut) {
+            this.bucketOut = bucketOut;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            bucketOut.write(b);
+            OutputStream out = clientOut();
+            if (out != null) {
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    clientFailed(e);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bucketOut.write(b, off, len);
+            OutputStream out = clientOut();
+            if (out != null) {
+                try {
+                    out.write(b, off, len);
+                } catch (IOException e) {
+                    clientFailed(e);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            bucketOut.flush();
+            if (clientOut != null && !clientFailed) {
+                try {
+                    clientOut.flush();
+                } catch (IOException e) {
+                    clientFailed(e);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            bucketOut.close();
+            flush();
+        }
+
+        private OutputStream clientOut() {
+            if (clientOut == null && !clientFailed) {
+                try {
+                    clientOut = output.open(expectedMimeType);
+                } catch (IOException e) {
+                    clientFailed(e);
+                }
+            }
+            return clientFailed ? null : clientOut;
+        }
+
+        private void clientFailed(IOException e) {
+            logger.debug("Stopped streaming fetch result", e);
+            clientFailed = true;
+        }
+    }
+}
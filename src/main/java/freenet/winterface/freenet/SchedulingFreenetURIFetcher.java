@@ -0,0 +1,315 @@
+package freenet.winterface.freenet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import freenet.client.FetchException;
+import freenet.client.FetchException.FetchExceptionMode;
+import freenet.client.FetchResult;
+
+/**
+ * {@link FreenetURIFetcher} which limits the number of fetches the underlying fetcher runs at
+ * once, so a single client opening lots of pages can not starve everyone else.
+ * <p>
+ * Fetches beyond the limit wait in one queue per {@link FetchRequest#getClient() client}, and
+ * clients take turns whenever a fetch finishes. Main documents go before embedded content
+ * across all clients, so the page a user navigated to is not stuck behind the images of
+ * another one. Cancelling a waiting fetch drops it from its queue. Waiting fetches are tracked
+ * as {@link FetchProgress.Phase#QUEUED}, so pages waiting for them can tell.
+ * </p>
+ */
+public class SchedulingFreenetURIFetcher extends AbstractFreenetURIFetcher implements StatisticsProvider {
+
+    /** Queue of requests which do not tell their client */
+    private static final String UNKNOWN_CLIENT = "";
+
+    private final FreenetURIFetcher fetcher;
+    private final int maxRunning;
+    private final FetchProgressTracker progressTracker;
+
+    /** Clients with waiting fetches, in the order they take turns */
+    private final LinkedHashMap<String, ClientQueue> clients = new LinkedHashMap<String, ClientQueue>();
+    private int running;
+    private int waiting;
+    private long fetchesQueued;
+    private long totalWaitTime;
+    private long maxWaitTime;
+    private long fetchesCancelled;
+
+    /**
+     * @param fetcher the fetcher to schedule fetches for
+     * @param maxRunning maximum number of fetches running at once
+     */
+    public SchedulingFreenetURIFetcher(FreenetURIFetcher fetcher, int maxRunning) {
+        this(fetcher, maxRunning, null);
+    }
+
+    /**
+     * @param fetcher the fetcher to schedule fetches for
+     * @param maxRunning maximum number of fetches running at once
+     * @param progressTracker tracker of the waiting fetches, may be {@code null}
+     */
+    public SchedulingFreenetURIFetcher(FreenetURIFetcher fetcher, int maxRunning, FetchProgressTracker progressTracker) {
+        if (fetcher == null) {
+            throw new NullPointerException();
+        }
+        this.fetcher = fetcher;
+        this.maxRunning = maxRunning;
+        this.progressTracker = progressTracker;
+    }
+
+    @Override
+    public FetchHandle startFetch(FetchRequest request, FetchCallback callback) {
+        final WaitingFetch fetch = new WaitingFetch(request, callback);
+        boolean queued;
+        synchronized (this) {
+            queued = running >= maxRunning || waiting > 0;
+            if (queued) {
+                ClientQueue queue = clients.get(fetch.client);
+                if (queue == null) {
+                    queue = new ClientQueue();
+                    clients.put(fetch.client, queue);
+                }
+                queue.get(request.isMainDocument()).add(fetch);
+                waiting++;
+                fetchesQueued++;
+                if (progressTracker != null) {
+                    // Before anything can start it, the fetch takes the progress over then
+                    fetch.progress = progressTracker.queue(request.getKey());
+                }
+            } else {
+                running++;
+            }
+        }
+        if (queued) {
+            // A fetch may have finished in the meantime
+            startWaiting();
+        } else {
+            start(fetch);
+        }
+        return new FetchHandle() {
+            @Override
+            public void cancel() {
+                SchedulingFreenetURIFetcher.this.cancel(fetch);
+            }
+        };
+    }
+
+    /**
+     * @return number of fetches waiting to be started
+     */
+    public synchronized int getQueueDepth() {
+        return waiting;
+    }
+
+    /**
+     * @return number of fetches which had to wait
+     */
+    public synchronized long getFetchesQueued() {
+        return fetchesQueued;
+    }
+
+    /**
+     * @return average time in milliseconds fetches had to wait
+     */
+    public synchronized long getAverageWaitTime() {
+        return fetchesQueued > 0 ? totalWaitTime / fetchesQueued : 0;
+    }
+
+    /**
+     * @return longest time in milliseconds a fetch had to wait
+     */
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * @return number of fetches cancelled before they completed, whether waiting or running
+     */
+    public synchronized long getFetchesCancelled() {
+        return fetchesCancelled;
+    }
+
+    @Override
+    public void addStatistics(Map<String, Object> statistics) {
+        if (fetcher instanceof StatisticsProvider) {
+            ((StatisticsProvider) fetcher).addStatistics(statistics);
+        }
+        synchronized (this) {
+            statistics.put("Statistics.fetchQueueDepth", waiting);
+            statistics.put("Statistics.fetchesQueued", fetchesQueued);
+            statistics.put("Statistics.fetchQueueAverageWait", getAverageWaitTime());
+            statistics.put("Statistics.fetchQueueMaxWait", maxWaitTime);
+            statistics.put("Statistics.fetchesCancelled", fetchesCancelled);
+        }
+    }
+
+    private void start(final WaitingFetch fetch) {
+        FetchCallback callback = new FetchCallback() {
+            @Override
+            public void onSuccess(FetchResult result) {
+                finished(fetch);
+                fetch.callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(FetchException e) {
+                finished(fetch);
+                fetch.callback.onFailure(e);
+            }
+        };
+        FetchHandle handle;
+        try {
+            handle = fetcher.startFetch(fetch.request, callback);
+        } catch (RuntimeException e) {
+            callback.onFailure(new FetchException(FetchExceptionMode.INTERNAL_ERROR, e));
+            return;
+        }
+        boolean cancelled;
+        synchronized (this) {
+            fetch.handle = handle;
+            cancelled = fetch.cancelled && !fetch.finished;
+        }
+        if (cancelled) {
+            // Cancelled while it was being started
+            handle.cancel();
+        }
+    }
+
+    private void finished(WaitingFetch fetch) {
+        synchronized (this) {
+            if (fetch.finished) {
+                return;
+            }
+            fetch.finished = true;
+            running--;
+        }
+        startWaiting();
+    }
+
+    /**
+     * Cancels the given fetch: a waiting fetch is simply dropped from its queue, a running one
+     * is cancelled in the underlying fetcher.
+     */
+    private void cancel(WaitingFetch fetch) {
+        boolean dequeued;
+        FetchHandle handle;
+        synchronized (this) {
+            if (fetch.cancelled || fetch.finished) {
+                return;
+            }
+            fetch.cancelled = true;
+            fetchesCancelled++;
+            ClientQueue queue = clients.get(fetch.client);
+            dequeued = queue != null && queue.get(fetch.request.isMainDocument()).remove(fetch);
+            if (dequeued) {
+                waiting--;
+                fetch.finished = true;
+                if (queue.isEmpty()) {
+                    clients.remove(fetch.client);
+                }
+            }
+            handle = fetch.handle;
+        }
+        if (dequeued) {
+            FetchException cancelled = new FetchException(FetchExceptionMode.CANCELLED);
+            if (fetch.progress != null) {
+                fetch.progress.onFailure(cancelled);
+            }
+            fetch.callback.onFailure(cancelled);
+        } else if (handle != null) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * Starts waiting fetches as long as the limit allows.
+     */
+    private void startWaiting() {
+        while (true) {
+            WaitingFetch next;
+            synchronized (this) {
+                if (running >= maxRunning) {
+                    return;
+                }
+                next = poll(true);
+                if (next == null) {
+                    next = poll(false);
+                }
+                if (next == null) {
+                    return;
+                }
+                running++;
+                waiting--;
+                long waitTime = System.currentTimeMillis() - next.queued;
+                totalWaitTime += waitTime;
+                maxWaitTime = Math.max(maxWaitTime, waitTime);
+            }
+            start(next);
+        }
+    }
+
+    /**
+     * Takes the next fetch of the first client having one, and lets that client go last.
+     */
+    private WaitingFetch poll(boolean mainDocument) {
+        Iterator<Map.Entry<String, ClientQueue>> it = clients.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ClientQueue> entry = it.next();
+            ClientQueue queue = entry.getValue();
+            WaitingFetch fetch = queue.get(mainDocument).poll();
+            if (fetch != null) {
+                it.remove();
+                if (!queue.isEmpty()) {
+                    clients.put(entry.getKey(), queue);
+                }
+                return fetch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A request waiting to be started.
+     */
+    private static class WaitingFetch {
+
+        final FetchRequest request;
+        final FetchCallback callback;
+        final String client;
+        final long queued = System.currentTimeMillis();
+        /** Handle of the underlying fetch once it was started, guarded by the scheduler */
+        FetchHandle handle;
+        boolean cancelled;
+        /** Whether the fetch completed or was dropped from its queue, guarded by the scheduler */
+        boolean finished;
+        /** Progress while the fetch waits, if tracked, guarded by the scheduler */
+        FetchProgress progress;
+
+        WaitingFetch(FetchRequest request, FetchCallback callback) {
+            this.request = request;
+            this.callback = callback;
+            this.client = request.getClient() != null ? request.getClient() : UNKNOWN_CLIENT;
+        }
+    }
+
+    /**
+     * The waiting requests of a client.
+     */
+    private static class ClientQueue {
+
+        final Deque<WaitingFetch> mainDocuments = new ArrayDeque<WaitingFetch>();
+        final Deque<WaitingFetch> embedded = new ArrayDeque<WaitingFetch>();
+
+        Deque<WaitingFetch> get(boolean mainDocument) {
+            return mainDocument ? mainDocuments : embedded;
+        }
+
+        boolean isEmpty() {
+            return mainDocuments.isEmpty() && embedded.isEmpty();
+        }
+    }
+}
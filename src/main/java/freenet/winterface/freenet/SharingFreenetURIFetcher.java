@@ -0,0 +1,242 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freenet.client.FetchException;
+import freenet.client.FetchException.FetchExceptionMode;
+import freenet.client.FetchResult;
+import freenet.support.api.Bucket;
+import freenet.support.io.BucketTools;
+
+/**
+ * {@link FreenetURIFetcher} which lets concurrent callers for the same {@link FetchKey} share
+ * a single fetch of the underlying fetcher.
+ * <p>
+ * The first caller starts the fetch (and streams to its {@link FetchOutput}, if any); callers
+ * arriving while it runs are called back with its result. All of them get the same
+ * {@link ResultBucket}, which is retained once per caller, so every caller has to free it as
+ * usual.
+ * </p>
+ * <p>
+ * A caller cancelling its {@link FetchHandle} only stops waiting for the shared fetch; the
+ * fetch itself is cancelled once the last caller did so.
+ * </p>
+ */
+public class SharingFreenetURIFetcher extends AbstractFreenetURIFetcher implements StatisticsProvider {
+
+    private final FreenetURIFetcher fetcher;
+    private final Map<FetchKey, SharedFetch> fetches = new HashMap<FetchKey, SharedFetch>();
+    private final AtomicLong fetchesStarted = new AtomicLong();
+    private final AtomicLong callersJoined = new AtomicLong();
+
+    public SharingFreenetURIFetcher(FreenetURIFetcher fetcher) {
+        if (fetcher == null) {
+            throw new NullPointerException();
+        }
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public FetchHandle startFetch(FetchRequest request, FetchCallback callback) {
+        final FetchKey key = request.getKey();
+        final SharedFetch shared;
+        Caller caller = new Caller(callback);
+        synchronized (fetches) {
+            SharedFetch running = fetches.get(key);
+            if (running != null) {
+                running.callers.add(caller);
+                callersJoined.incrementAndGet();
+                return new CallerHandle(key, running, caller);
+            }
+            shared = new SharedFetch();
+            shared.callers.add(caller);
+            fetches.put(key, shared);
+        }
+        fetchesStarted.incrementAndGet();
+        FetchHandle handle;
+        try {
+            handle = fetcher.startFetch(request, new FetchCallback() {
+                @Override
+                public void onSuccess(FetchResult result) {
+                    complete(key, shared, result, null);
+                }
+
+                @Override
+                public void onFailure(FetchException e) {
+                    complete(key, shared, null, e);
+                }
+            });
+        } catch (RuntimeException e) {
+            complete(key, shared, null, new FetchException(FetchExceptionMode.INTERNAL_ERROR, e));
+            handle = FetchHandle.COMPLETED;
+        }
+        boolean abandoned;
+        synchronized (fetches) {
+            shared.handle = handle;
+            abandoned = shared.abandoned;
+        }
+        if (abandoned) {
+            // All callers went away while the fetch was being started
+            handle.cancel();
+        }
+        return new CallerHandle(key, shared, caller);
+    }
+
+    /**
+     * @return number of fetches actually started by the underlying fetcher
+     */
+    public long getFetchesStarted() {
+        return fetchesStarted.get();
+    }
+
+    /**
+     * @return number of callers which joined a fetch started by another caller
+     */
+    public long getCallersJoined() {
+        return callersJoined.get();
+    }
+
+    @Override
+    public void addStatistics(Map<String, Object> statistics) {
+        if (fetcher instanceof StatisticsProvider) {
+            ((StatisticsProvider) fetcher).addStatistics(statistics);
+        }
+        statistics.put("Statistics.fetchesStarted", getFetchesStarted());
+        statistics.put("Statistics.fetchCallersJoined", getCallersJoined());
+    }
+
+    /**
+     * Passes the outcome of a fetch on to all callers which did not cancel.
+     */
+    private void complete(FetchKey key, SharedFetch shared, FetchResult result, FetchException failure) {
+        List<Caller> callers;
+        synchronized (fetches) {
+            // From now on, callers for this key start a new fetch
+            if (fetches.get(key) == shared) {
+                fetches.remove(key);
+            }
+            shared.completed = true;
+            callers = new ArrayList<Caller>(shared.callers);
+        }
+        if (result != null && callers.isEmpty()) {
+            result.asBucket().free();
+            return;
+        }
+        if (result != null && callers.size() > 1) {
+            try {
+                result = toResultBucket(result);
+                ResultBucket bucket = (ResultBucket) result.asBucket();
+                for (int i = 1; i < callers.size(); i++) {
+                    bucket.retain();
+                }
+            } catch (IOException e) {
+                result.asBucket().free();
+                result = null;
+                failure = new FetchException(FetchExceptionMode.BUCKET_ERROR, e);
+            }
+        }
+        for (Caller caller : callers) {
+            if (failure != null) {
+                caller.callback.onFailure(failure);
+            } else {
+                caller.callback.onSuccess(result);
+            }
+        }
+    }
+
+    /**
+     * Cancels the given caller's part in a shared fetch, and the fetch itself once no caller
+     * is left.
+     */
+    private void cancel(FetchKey key, SharedFetch shared, Caller caller) {
+        FetchHandle handle = null;
+        synchronized (fetches) {
+            if (shared.completed || !shared.callers.remove(caller)) {
+                return;
+            }
+            if (shared.callers.isEmpty()) {
+                // Nobody waits for the result anymore, a new caller starts over
+                fetches.remove(key);
+                shared.abandoned = true;
+                handle = shared.handle;
+            }
+        }
+        caller.callback.onFailure(new FetchException(FetchExceptionMode.CANCELLED));
+        if (handle != null) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * Makes sure the result is held by a {@link ResultBucket}, copying it if necessary.
+     */
+    private static FetchResult toResultBucket(FetchResult result) throws IOException {
+        Bucket bucket = result.asBucket();
+        if (bucket instanceof ResultBucket) {
+            return result;
+        }
+        ResultBucket copy = new ResultBucket();
+        try {
+            BucketTools.copy(bucket, copy);
+        } catch (IOException e) {
+            copy.free();
+            throw e;
+        }
+        bucket.free();
+        return new FetchResult(result.getMetadata(), copy);
+    }
+
+    /**
+     * A fetch in progress, and the callers waiting for it. Guarded by {@link #fetches}.
+     */
+    private static class SharedFetch {
+
+        /** Callers waiting for the fetch, the one which started it first */
+        final List<Caller> callers = new ArrayList<Caller>();
+        /** Handle of the underlying fetch, {@code null} while it is being started */
+        FetchHandle handle;
+        /** Whether the outcome of the fetch has been passed on */
+        boolean completed;
+        /** Whether all callers cancelled */
+        boolean abandoned;
+    }
+
+    /**
+     * A caller waiting for a shared fetch. Each caller is a separate object, even if two
+     * callers happen to use the same callback.
+     */
+    private static class Caller {
+
+        final FetchCallback callback;
+
+        Caller(FetchCallback callback) {
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Handle of one caller's part in a shared fetch.
+     */
+    private class CallerHandle implements FetchHandle {
+
+        private final FetchKey key;
+        private final SharedFetch shared;
+        private final Caller caller;
+
+        CallerHandle(FetchKey key, SharedFetch shared, Caller caller) {
+            this.key = key;
+            this.shared = shared;
+            this.caller = caller;
+        }
+
+        @Override
+        public void cancel() {
+            SharingFreenetURIFetcher.this.cancel(key, shared, caller);
+        }
+    }
+}
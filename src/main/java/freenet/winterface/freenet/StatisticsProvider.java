@@ -0,0 +1,16 @@
+package freenet.winterface.freenet;
+
+import java.util.Map;
+
+/**
+ * Implemented by parts of Winterface which keep counters worth showing on the
+ * statistics page.
+ */
+public interface StatisticsProvider {
+
+    /**
+     * Adds the current counters to the given map.
+     * @param statistics map from the localization key of a counter to its value
+     */
+    public void addStatistics(Map<String, Object> statistics);
+}
@@ -0,0 +1,72 @@
+package freenet.winterface.freenet;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freenet.client.FetchException;
+import freenet.client.FetchException.FetchExceptionMode;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+/**
+ * {@link FreenetURIFetcher} which redirects requests for {@code USK@} editions older than the
+ * latest one known to the {@link USKEditionIndex} right away, failing them with
+ * {@link FetchExceptionMode#PERMANENT_REDIRECT} just like the node would after looking up the
+ * site. Redirects and successful fetches of the underlying fetcher feed the index.
+ */
+public class USKEditionFreenetURIFetcher extends AbstractFreenetURIFetcher implements StatisticsProvider {
+
+    private final FreenetURIFetcher fetcher;
+    private final USKEditionIndex index;
+    private final AtomicLong redirects = new AtomicLong();
+
+    public USKEditionFreenetURIFetcher(FreenetURIFetcher fetcher, USKEditionIndex index) {
+        if (fetcher == null || index == null) {
+            throw new NullPointerException();
+        }
+        this.fetcher = fetcher;
+        this.index = index;
+    }
+
+    @Override
+    public FetchHandle startFetch(FetchRequest request, final FetchCallback callback) {
+        final FetchKey key = request.getKey();
+        FreenetURI newURI = index.lookup(key.getURI());
+        if (newURI != null) {
+            redirects.incrementAndGet();
+            callback.onFailure(new FetchException(FetchExceptionMode.PERMANENT_REDIRECT, newURI));
+            return FetchHandle.COMPLETED;
+        }
+        return fetcher.startFetch(request, new FetchCallback() {
+            @Override
+            public void onSuccess(FetchResult result) {
+                index.record(key.getURI());
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(FetchException e) {
+                if (e.getMode() == FetchExceptionMode.PERMANENT_REDIRECT && e.newURI != null) {
+                    index.record(e.newURI);
+                }
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * @return number of requests redirected without fetching
+     */
+    public long getRedirects() {
+        return redirects.get();
+    }
+
+    @Override
+    public void addStatistics(Map<String, Object> statistics) {
+        if (fetcher instanceof StatisticsProvider) {
+            ((StatisticsProvider) fetcher).addStatistics(statistics);
+        }
+        statistics.put("Statistics.uskEditionRedirects", getRedirects());
+        statistics.put("Statistics.uskSitesKnown", index.getSiteCount());
+    }
+}
@@ -0,0 +1,193 @@
+package freenet.winterface.freenet;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import freenet.client.async.ClientContext;
+import freenet.client.async.USKCallback;
+import freenet.client.async.USKManager;
+import freenet.keys.FreenetURI;
+import freenet.keys.USK;
+import freenet.node.RequestClient;
+import freenet.node.RequestStarter;
+
+/**
+ * Remembers the latest known edition of recently visited {@code USK@} sites, so requests for
+ * older editions can be redirected without asking the node.
+ * <p>
+ * Editions are learned from the redirects of fetches and from the node: the index subscribes to
+ * each site it knows, without starting any fetches of its own, and moves on whenever the node
+ * finds a newer edition. Only the {@link #MAX_SITES} most recently used sites are kept.
+ * </p>
+ */
+public class USKEditionIndex {
+
+    /** Maximum number of sites kept */
+    public static final int MAX_SITES = 256;
+
+    private static final RequestClient REQUEST_CLIENT = new RequestClient() {
+        @Override
+        public boolean persistent() {
+            return false;
+        }
+
+        @Override
+        public boolean realTimeFlag() {
+            return false;
+        }
+    };
+
+    private final USKManager uskManager;
+    /** Known sites by their edition 0 USK, least recently used first */
+    private final LinkedHashMap<USK, Site> sites = new LinkedHashMap<USK, Site>(16, 0.75f, true);
+    private boolean closed;
+
+    /**
+     * @param uskManager the node's USK manager to subscribe to sites with, or {@code null} to
+     *            only learn from redirects
+     */
+    public USKEditionIndex(USKManager uskManager) {
+        this.uskManager = uskManager;
+    }
+
+    /**
+     * Returns the URI of the latest known edition for the given URI.
+     *
+     * @param uri the URI to look up
+     * @return the given URI at the latest known edition, or {@code null} if it is not a USK or
+     *         no newer edition is known
+     */
+    public FreenetURI lookup(FreenetURI uri) {
+        USK usk = toUSK(uri);
+        if (usk == null) {
+            return null;
+        }
+        long known;
+        synchronized (this) {
+            Site site = sites.get(usk.copy(0));
+            if (site == null) {
+                return null;
+            }
+            known = site.edition;
+        }
+        long requested = uri.getSuggestedEdition();
+        // Negative editions ask for the latest edition from that one on
+        if (known > requested && known >= -requested) {
+            return uri.setSuggestedEdition(known);
+        }
+        return null;
+    }
+
+    /**
+     * Records that the given edition of a site exists.
+     *
+     * @param uri the URI of a USK edition, other URIs are ignored
+     */
+    public void record(FreenetURI uri) {
+        USK usk = toUSK(uri);
+        if (usk != null && uri.getSuggestedEdition() >= 0) {
+            record(usk.copy(0), uri.getSuggestedEdition());
+        }
+    }
+
+    /**
+     * @return number of sites known
+     */
+    public synchronized int getSiteCount() {
+        return sites.size();
+    }
+
+    /**
+     * Unsubscribes from all sites and forgets them. Nothing is recorded afterwards.
+     */
+    public void close() {
+        List<Site> known;
+        synchronized (this) {
+            closed = true;
+            known = new ArrayList<Site>(sites.values());
+            sites.clear();
+        }
+        if (uskManager != null) {
+            for (Site site : known) {
+                uskManager.unsubscribe(site.base, site);
+            }
+        }
+    }
+
+    private void record(USK base, long edition) {
+        Site added = null;
+        Site evicted = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            Site site = sites.get(base);
+            if (site == null) {
+                added = site = new Site(base);
+                sites.put(base, site);
+                if (sites.size() > MAX_SITES) {
+                    Iterator<Site> lru = sites.values().iterator();
+                    evicted = lru.next();
+                    lru.remove();
+                }
+            }
+            site.edition = Math.max(site.edition, edition);
+        }
+        if (uskManager != null) {
+            if (added != null) {
+                // Only listen, the index must not cause any traffic itself
+                uskManager.subscribe(base, added, false, false, REQUEST_CLIENT);
+            }
+            if (evicted != null) {
+                uskManager.unsubscribe(evicted.base, evicted);
+            }
+        }
+    }
+
+    private static USK toUSK(FreenetURI uri) {
+        if (!"USK".equalsIgnoreCase(uri.getKeyType())) {
+            return null;
+        }
+        try {
+            return USK.create(uri);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A known site, listening to the editions the node finds.
+     */
+    private class Site implements USKCallback {
+
+        final USK base;
+        /** Latest known edition, guarded by the index */
+        long edition;
+
+        Site(USK base) {
+            this.base = base;
+        }
+
+        @Override
+        public void onFoundEdition(long l, USK key, ClientContext context, boolean metadata, short codec, byte[] data,
+                boolean newKnownGood, boolean newSlotToo) {
+            synchronized (USKEditionIndex.this) {
+                edition = Math.max(edition, l);
+            }
+        }
+
+        @Override
+        public short getPollingPriorityNormal() {
+            return RequestStarter.PREFETCH_PRIORITY_CLASS;
+        }
+
+        @Override
+        public short getPollingPriorityProgress() {
+            return RequestStarter.PREFETCH_PRIORITY_CLASS;
+        }
+    }
+}
@@ -52,6 +52,21 @@ public class UserAlertManagerInterface {
 		return Integer.parseInt(anchorSubstrings[anchorSubstrings.length - 1]);
 	}
 
+	/**
+	 * Returns a number which changes whenever an alert becomes valid or invalid, or is updated.
+	 * The text of an alert may change without that, though.
+	 * 
+	 * @return the version of the valid alerts
+	 */
+	public int getVersion() {
+		int version = 1;
+		for (UserAlert alert : getValidAlerts()) {
+			version = 31 * version + System.identityHashCode(alert);
+			version = 31 * version + (int) (alert.getUpdatedTime() ^ (alert.getUpdatedTime() >>> 32));
+		}
+		return version;
+	}
+
 	public int alertClass(UserAlert alert) {
 		return alert.getPriorityClass();
 	}
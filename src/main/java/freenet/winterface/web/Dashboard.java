@@ -14,5 +14,11 @@ public class Dashboard extends VelocityBase {
 	@Override
 	protected void subFillContext(Context context, HttpServletRequest request) {
 	}
+
+	@Override
+	protected boolean isStreaming() {
+		// The panels ask the node for their data while they are rendered
+		return true;
+	}
 		
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URLEncoder;
+
+import org.apache.log4j.Logger;
+
+import freenet.keys.FreenetURI;
+import freenet.support.SizeUtil;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.core.VelocityBase;
+import freenet.winterface.freenet.FreenetInterface;
+
+import org.apache.velocity.context.Context;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Page shown instead of a file which is too big to be shown in the browser (see the
+ * {@code maxLength} option). It offers to download the file on the node's global queue.
+ */
+public class Download extends VelocityBase {
+
+	private static final Logger logger = Logger.getLogger(Download.class);
+
+	/** Parameter holding the key to download */
+	public static final String PARAM_KEY = "key";
+	/** Parameter holding the expected size of the file */
+	public static final String PARAM_SIZE = "size";
+	/** Parameter holding the expected MIME type of the file */
+	public static final String PARAM_TYPE = "type";
+	/** Parameter telling whether to filter the downloaded file, filtered unless it is {@code false} */
+	private static final String PARAM_FILTER = "filter";
+	/** Parameter holding the node's form password */
+	private static final String PARAM_FORM_PASSWORD = "formPassword";
+
+	/** Request attribute telling whether the download was queued */
+	private static final String QUEUED_ATTRIBUTE = Download.class.getName() + ".queued";
+	/** Request attribute holding the reason the download could not be queued */
+	private static final String ERROR_ATTRIBUTE = Download.class.getName() + ".error";
+
+	/** Maximum length of accepted parameters */
+	private static final int MAX_PARAM_LENGTH = 1024;
+
+	@Override
+	protected void subFillContext(Context context, HttpServletRequest request) {
+		context.put("key", getParamSafe(request, PARAM_KEY, MAX_PARAM_LENGTH, null));
+		long size = -1;
+		try {
+			size = Long.parseLong(getParamSafe(request, PARAM_SIZE, 20, "-1"));
+		} catch (NumberFormatException e) {
+			// Unknown, as far as the page is concerned
+		}
+		context.put("size", size >= 0 ? SizeUtil.formatSize(size) : null);
+		context.put("type", getParamSafe(request, PARAM_TYPE, MAX_PARAM_LENGTH, null));
+		context.put("queued", request.getAttribute(QUEUED_ATTRIBUTE));
+		context.put("error", request.getAttribute(ERROR_ATTRIBUTE));
+	}
+
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String key = getParamSafe(request, PARAM_KEY, MAX_PARAM_LENGTH, null);
+		FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
+		// Like FProxy, only accept the form from our own pages
+		String formPassword = getParamSafe(request, PARAM_FORM_PASSWORD, MAX_PARAM_LENGTH, null);
+		if (key == null || formPassword == null || !formPassword.equals(freenetInterface.getFormPassword())) {
+			postReqReturnErrorPage(request, response);
+			return;
+		}
+		// Only an explicit choice turns off filtering
+		boolean filter = !"false".equals(getParamSafe(request, PARAM_FILTER, 5, "true"));
+		try {
+			freenetInterface.queueDownload(new FreenetURI(key), filter, getParamSafe(request, PARAM_TYPE, MAX_PARAM_LENGTH, null));
+			request.setAttribute(QUEUED_ATTRIBUTE, Boolean.TRUE);
+		} catch (MalformedURLException e) {
+			request.setAttribute(ERROR_ATTRIBUTE, e.getMessage());
+		} catch (IOException e) {
+			logger.warn("Could not queue download of " + key, e);
+			request.setAttribute(ERROR_ATTRIBUTE, e.getMessage());
+		}
+		super.doPost(request, response);
+	}
+
+	/**
+	 * Gives the query string of this page for the given file.
+	 * 
+	 * @param key
+	 *            the key of the file
+	 * @param size
+	 *            the expected size of the file, or {@code -1} if unknown
+	 * @param mimeType
+	 *            the expected MIME type of the file, or {@code null} if unknown
+	 */
+	public static String getQuery(String key, long size, String mimeType) {
+		try {
+			StringBuilder query = new StringBuilder();
+			query.append(PARAM_KEY).append('=').append(URLEncoder.encode(key, "UTF-8"));
+			query.append('&').append(PARAM_SIZE).append('=').append(size);
+			if (mimeType != null) {
+				query.append('&').append(PARAM_TYPE).append('=').append(URLEncoder.encode(mimeType, "UTF-8"));
+			}
+			return query.toString();
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+
+}
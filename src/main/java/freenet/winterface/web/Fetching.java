@@ -0,0 +1,25 @@
+package freenet.winterface.web;
+
+import freenet.winterface.core.RequestsUtil;
+import freenet.winterface.core.VelocityBase;
+
+import org.apache.velocity.context.Context;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Page shown instead of a freesite whose fetch takes long. It polls {@link Progress} and
+ * loads the freesite once the fetch finished.
+ */
+public class Fetching extends VelocityBase {
+
+	/** Request attribute holding the key {@link Root} waits for */
+	public static final String KEY_ATTRIBUTE = Fetching.class.getName() + ".key";
+
+	@Override
+	protected void subFillContext(Context context, HttpServletRequest request) {
+		context.put("key", request.getAttribute(KEY_ATTRIBUTE));
+		context.put("noProgressParam", RequestsUtil.PARAM_NO_PROGRESS);
+	}
+
+}
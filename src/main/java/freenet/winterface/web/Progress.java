@@ -0,0 +1,84 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+
+import freenet.keys.FreenetURI;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.freenet.FetchKey;
+import freenet.winterface.freenet.FetchProgress;
+import freenet.winterface.freenet.FreenetInterface;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports the progress of the fetch for the key following the servlet path as JSON, for the
+ * page shown while {@link Root} waits for slow keys.
+ */
+public class Progress extends HttpServlet {
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		FetchProgress progress = null;
+		String key = request.getPathInfo() == null ? "" : request.getPathInfo().substring(1);
+		try {
+			FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
+			// Root fetches filtered content
+			progress = freenetInterface.getFetchProgress(new FetchKey(new FreenetURI(key), true));
+		} catch (MalformedURLException e) {
+			// Unknown, as far as the page is concerned
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		PrintWriter writer = response.getWriter();
+		if (progress == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			writer.print("{\"phase\":\"unknown\"}");
+			return;
+		}
+		// The page polls while it is open, so the fetch is not abandoned
+		progress.watch();
+		synchronized (progress) {
+			writer.print("{\"phase\":" + quote(progress.getPhase().name().toLowerCase()));
+			writer.print(",\"finished\":" + progress.isFinished());
+			writer.print(",\"blocksFetched\":" + progress.getBlocksFetched());
+			writer.print(",\"blocksRequired\":" + progress.getBlocksRequired());
+			writer.print(",\"blocksTotal\":" + progress.getBlocksTotal());
+			writer.print(",\"blocksFailed\":" + progress.getBlocksFailed());
+			writer.print(",\"finalizedTotal\":" + progress.isFinalizedTotal());
+			writer.print(",\"expectedSize\":" + progress.getExpectedSize());
+			writer.print(",\"expectedMimeType\":" + quote(progress.getExpectedMimeType()));
+			writer.print(",\"elapsed\":" + progress.getElapsedTime());
+			writer.print(",\"eta\":" + progress.getEstimatedTimeRemaining());
+			writer.print(",\"failure\":" + quote(progress.getFailure()));
+			writer.print(",\"tooBig\":" + progress.isTooBig());
+			writer.print(",\"redirect\":" + quote(progress.getRedirect() != null ? progress.getRedirect().toString() : null));
+			writer.print("}");
+		}
+	}
+
+	/**
+	 * @return the given string as JSON string literal, or {@code null}
+	 */
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20 || c == '<' || c == '>') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+}
@@ -0,0 +1,29 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+
+import freenet.winterface.core.Readiness;
+import freenet.winterface.core.ServerManager;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Tells whether Winterface is ready to serve pages: {@code 200 OK} if it is,
+ * {@code 503 Service Unavailable} while it is starting. Cheap enough to be polled, e.g. by the
+ * plugins page while Winterface reloads.
+ */
+public class Ready extends HttpServlet {
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		Readiness readiness = (Readiness) getServletContext().getAttribute(ServerManager.READINESS);
+		boolean ready = readiness != null && readiness.isReady();
+		response.setContentType("text/plain");
+		response.setHeader("Cache-Control", "no-store");
+		response.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.getWriter().print(ready ? "ready" : "starting");
+	}
+
+}
@@ -1,30 +1,123 @@
 package freenet.winterface.web;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import org.apache.commons.io.IOUtils;
+
 import freenet.client.FetchException;
 import freenet.client.FetchException.FetchExceptionMode;
 import freenet.client.FetchResult;
+import freenet.crypt.SHA256;
 import freenet.keys.FreenetURI;
+import freenet.support.HexUtil;
 import freenet.support.api.Bucket;
 import freenet.support.io.BucketTools;
+import freenet.winterface.core.ByteRange;
+import freenet.winterface.core.Configuration;
+import freenet.winterface.core.RequestsUtil;
 import freenet.winterface.core.Routes;
 import freenet.winterface.core.ServerManager;
+import freenet.winterface.freenet.CachingFreenetURIFetcher;
+import freenet.winterface.freenet.FetchCallback;
+import freenet.winterface.freenet.FetchHandle;
+import freenet.winterface.freenet.FetchKey;
+import freenet.winterface.freenet.FetchOutput;
+import freenet.winterface.freenet.FetchProfile;
+import freenet.winterface.freenet.FetchProgress;
+import freenet.winterface.freenet.FetchRequest;
 import freenet.winterface.freenet.FreenetInterface;
+import freenet.winterface.freenet.FreenetURIUtil;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.server.AbstractHttpConnection;
 
 /**
  * Fetch USK page.
  */
 public class Root extends HttpServlet {
 
+	/** Log4j logger */
+	private static final Logger logger = Logger.getLogger(Root.class);
+
+	/** Request attribute holding the failure of a fetch which was already streaming */
+	private static final String STREAM_FAILURE_ATTRIBUTE = Root.class.getName() + ".streamFailure";
+
+	private static final String HEADER_RANGE = "Range";
+	private static final String HEADER_IF_RANGE = "If-Range";
+	private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+	private static final String HEADER_CONTENT_RANGE = "Content-Range";
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	private static final String HEADER_ETAG = "ETag";
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+	private static final String HEADER_ACCEPT = "Accept";
+
+	/** Time after which the progress page is shown instead of waiting for the content */
+	private static final long PROGRESS_PAGE_DELAY = SECONDS.toMillis(2);
+	/** Time after which a fetch is cancelled if its progress page stopped polling */
+	private static final long PROGRESS_PAGE_ABANDONED = SECONDS.toMillis(10);
+
+	/** Caching of content which never changes: one year, the maximum allowed by RFC 2616 */
+	private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+	/** Caching of content which may change, revalidated as often as our own cache */
+	private static final String CACHE_MUTABLE = "public, max-age=" + MILLISECONDS.toSeconds(CachingFreenetURIFetcher.MUTABLE_TTL);
+
+	/** Timer for showing the progress page */
+	private ScheduledExecutorService progressTimer;
+	/** Fetches which have not completed yet, cancelled when stopping */
+	private final Set<AsyncFetch> runningFetches = Collections.newSetFromMap(new ConcurrentHashMap<AsyncFetch, Boolean>());
+
 	public Root() {
 	}
+
+	@Override
+	public void init() throws ServletException {
+		progressTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("Winterface fetch progress").setDaemon(true).build());
+	}
+
+	/**
+	 * Cancels the fetches which are still running; the server lets requests finish before
+	 * stopping, so these are the ones which did not make it in time.
+	 */
+	@Override
+	public void destroy() {
+		progressTimer.shutdownNow();
+		if (!runningFetches.isEmpty()) {
+			logger.info("Cancelling " + runningFetches.size() + " running fetches");
+		}
+		for (AsyncFetch fetch : runningFetches) {
+			fetch.cancel();
+		}
+	}
 	
 	protected Routes getRoutes() {
 		return (Routes) getServletContext().getAttribute(ServerManager.WINTERFACE_ROUTES);
@@ -40,6 +133,20 @@ public class Root extends HttpServlet {
 	}
 	
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		FetchException streamFailure = (FetchException) request.getAttribute(STREAM_FAILURE_ATTRIBUTE);
+		if (streamFailure != null) {
+			// Dispatched back from a fetch which failed after part of the content has been sent,
+			// all we can do is drop the connection. Jetty only logs other exceptions once the
+			// response is committed, and the CompressionFilter would still finish the content, so
+			// the browser would take the truncated content as complete.
+			AbstractHttpConnection connection = AbstractHttpConnection.getCurrentConnection();
+			if (connection != null) {
+				connection.getEndPoint().close();
+			}
+			EofException abort = new EofException("Fetch failed while streaming");
+			abort.initCause(streamFailure);
+			throw abort;
+		}
 		String localPath = request.getPathInfo().substring(request.getServletPath().length() + 1);
 		// "/" redirects to the default page - Dashboard
 		if(localPath.isEmpty()) {
@@ -50,42 +157,650 @@ public class Root extends HttpServlet {
 		           localPath.startsWith("SSK@") ||
 		           localPath.startsWith("CHK@")) {
 			FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
-			FetchResult result = null;
+			FreenetURI uri;
 			try {
-				result = freenetInterface.filteredFetchURI(new FreenetURI(localPath));
+				uri = new FreenetURI(localPath);
 			} catch (MalformedURLException e) {
 				response.sendRedirect(getRoutes().getPathForErrorPage(e, localPath));
-			} catch (FetchException e) {
+				return;
+			}
+			CacheHeaders cacheHeaders = new CacheHeaders(uri, freenetInterface.buildNumber());
+			FetchKey key = new FetchKey(uri, true);
+			if (cacheHeaders.etag != null && matchesETag(request.getHeader(HEADER_IF_NONE_MATCH), cacheHeaders.etag, isKnown(freenetInterface, key))) {
+				// The browser has this content already, and it can not have changed
+				cacheHeaders.apply(response);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			String range = request.getHeader(HEADER_RANGE);
+			String ifRange = request.getHeader(HEADER_IF_RANGE);
+			if (range != null && ifRange != null && (cacheHeaders.etag == null || !cacheHeaders.etag.equals(ifRange.trim()))) {
+				// The browser's partial copy is outdated, send it all
+				range = null;
+			}
+			if (ByteRange.isCompleteContent(range)) {
+				// Media players start with bytes=0-, answer it with the streamed content
+				range = null;
+			}
+			// The fetch runs without holding this thread, the response completes from its callback
+			// Passing the response on keeps the wrapper of the CompressionFilter
+			AsyncContext asyncContext = request.startAsync(request, response);
+			asyncContext.setTimeout(((Configuration) getServletContext().getAttribute(ServerManager.CONFIG_ID)).getAsyncTimeout());
+			// Range requests need the complete result, others are streamed
+			ResponseOutput output = range == null ? new ResponseOutput(asyncContext, cacheHeaders) : null;
+			AsyncFetch fetch = new AsyncFetch(asyncContext, localPath, key, output, cacheHeaders, range);
+			asyncContext.addListener(fetch);
+			runningFetches.add(fetch);
+			fetch.started(freenetInterface.startFetch(new FetchRequest(key, output, request.getRemoteAddr(), getProfile(request)), fetch));
+			if (output != null && showsProgress(request)) {
+				// Tell the user what is going on if the fetch takes a while
+				progressTimer.schedule(fetch.new ProgressPageTask(), PROGRESS_PAGE_DELAY, MILLISECONDS);
+			}
+		} else {
+			// The path given was invalid (not a Freenet URI and not in the Routes)
+			response.sendRedirect(getRoutes().getPathForErrorPage());
+		}
+		
+	}
+
+	/**
+	 * Writes the complete result, or the requested part of it.
+	 * 
+	 * @param range
+	 *            requested range, or {@code null} to write the complete result
+	 */
+	private static void writeBucket(HttpServletResponse response, String mimeType, CacheHeaders cacheHeaders, Bucket bucket, ByteRange range) throws IOException {
+		long size = bucket.size();
+		response.setContentType(mimeType);
+		response.setHeader(HEADER_ACCEPT_RANGES, "bytes");
+		if (range == ByteRange.UNSATISFIABLE) {
+			response.setHeader(HEADER_CONTENT_RANGE, range.toContentRange(size));
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+		cacheHeaders.apply(response);
+		if (range == null) {
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setHeader(HEADER_CONTENT_LENGTH, Long.toString(size));
+			BucketTools.copyTo(bucket, response.getOutputStream(), Long.MAX_VALUE);
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setHeader(HEADER_CONTENT_RANGE, range.toContentRange(size));
+		response.setHeader(HEADER_CONTENT_LENGTH, Long.toString(range.length()));
+		InputStream in = bucket.getInputStream();
+		try {
+			// Skipping does not copy anything for in-memory buckets
+			long toSkip = range.first;
+			while (toSkip > 0) {
+				long skipped = in.skip(toSkip);
+				if (skipped <= 0) {
+					throw new EOFException("Result is shorter than its size");
+				}
+				toSkip -= skipped;
+			}
+			IOUtils.copyLarge(in, response.getOutputStream(), 0, range.length());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks whether the browser is navigating to a page, as opposed to loading e.g. images
+	 * on a page.
+	 */
+	private static boolean isMainDocument(HttpServletRequest request) {
+		String accept = request.getHeader(HEADER_ACCEPT);
+		return accept != null && accept.contains("text/html");
+	}
+
+	/**
+	 * Picks the profile to fetch with: pages the browser navigates to go first, embedded content
+	 * follows.
+	 */
+	private static FetchProfile getProfile(HttpServletRequest request) {
+		return isMainDocument(request) ? FetchProfile.INTERACTIVE_PAGE : FetchProfile.INLINE_SUBRESOURCE;
+	}
+
+	/**
+	 * Checks whether the progress page may be shown instead of the requested content: only
+	 * browsers navigating to a page get it.
+	 */
+	private static boolean showsProgress(HttpServletRequest request) {
+		return "GET".equals(request.getMethod()) && isMainDocument(request)
+				&& request.getParameter(RequestsUtil.PARAM_NO_PROGRESS) == null;
+	}
+
+	/**
+	 * Completes an asynchronous request once its fetch completed, failed or timed out;
+	 * whichever happens first. The fetch is cancelled if the request times out or the
+	 * browser goes away.
+	 */
+	private class AsyncFetch implements FetchCallback, AsyncListener {
+
+		private final AsyncContext asyncContext;
+		private final HttpServletResponse response;
+		private final String localPath;
+		private final FetchKey key;
+		private final ResponseOutput output;
+		private final CacheHeaders cacheHeaders;
+		private final String range;
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private FetchHandle handle;
+		private boolean cancelled;
+
+		AsyncFetch(AsyncContext asyncContext, String localPath, FetchKey key, ResponseOutput output, CacheHeaders cacheHeaders, String range) {
+			this.asyncContext = asyncContext;
+			this.response = (HttpServletResponse) asyncContext.getResponse();
+			this.localPath = localPath;
+			this.key = key;
+			this.output = output;
+			this.cacheHeaders = cacheHeaders;
+			this.range = range;
+			if (output != null) {
+				output.whenDisconnected(new Runnable() {
+					@Override
+					public void run() {
+						cancel();
+					}
+				});
+			}
+		}
+
+		/**
+		 * Sets the handle of the started fetch, cancelling it if that was asked for already.
+		 */
+		void started(FetchHandle handle) {
+			synchronized (this) {
+				this.handle = handle;
+				if (!cancelled) {
+					return;
+				}
+			}
+			handle.cancel();
+		}
+
+		/**
+		 * Cancels the fetch, once it has been started.
+		 */
+		void cancel() {
+			FetchHandle handle;
+			synchronized (this) {
+				cancelled = true;
+				handle = this.handle;
+			}
+			if (handle != null) {
+				handle.cancel();
+			}
+		}
+
+		@Override
+		public void onSuccess(final FetchResult result) {
+			runningFetches.remove(this);
+			if (!finished.compareAndSet(false, true)) {
+				// Timed out already, or the progress page is shown; the result still warms the cache
+				result.asBucket().free();
+				return;
+			}
+			if (output != null && output.isOpened()) {
+				// The output writes the rest
+				output.succeeded(result);
+				return;
+			}
+			// Writing may block on a slow browser, so do it on a container thread rather than the node's
+			asyncContext.start(new Runnable() {
+				@Override
+				public void run() {
+					Bucket resultBucket = result.asBucket();
+					try {
+						// Nothing was streamed (range request, cached result or empty file)
+						writeBucket(response, result.getMimeType(), cacheHeaders, resultBucket, ByteRange.parse(range, resultBucket.size()));
+						OutputStream resOutStream = response.getOutputStream();
+						resOutStream.flush();
+						resOutStream.close();
+					} catch (IOException e) {
+						logger.debug("Could not write " + localPath, e);
+					} finally {
+						resultBucket.free();
+						asyncContext.complete();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void onFailure(FetchException e) {
+			runningFetches.remove(this);
+			if (finished.compareAndSet(false, true)) {
+				fail(e);
+			}
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			if (finished.compareAndSet(false, true)) {
+				fail(new FetchException(FetchExceptionMode.CANCELLED, "Timed out after " + MILLISECONDS.toSeconds(asyncContext.getTimeout()) + "s"));
+			}
+			// Nobody waits for the result anymore
+			cancel();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			if (finished.compareAndSet(false, true)) {
+				asyncContext.complete();
+			}
+			cancel();
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			// nothing!
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// nothing!
+		}
+
+		/**
+		 * Shows the {@link Fetching} page if the fetch has neither finished nor started to
+		 * write the content. The fetch carries on, so its result can be served from the cache.
+		 */
+		class ProgressPageTask implements Runnable {
+
+			@Override
+			public void run() {
+				if (output.close() && finished.compareAndSet(false, true)) {
+					asyncContext.getRequest().setAttribute(Fetching.KEY_ATTRIBUTE, localPath);
+					asyncContext.dispatch(getRoutes().getPathFor(Fetching.class));
+					progressTimer.schedule(new AbandonedCheckTask(), PROGRESS_PAGE_ABANDONED, MILLISECONDS);
+				}
+			}
+		}
+
+		/**
+		 * Cancels the fetch once the {@link Fetching} page stopped polling its progress, i.e.
+		 * the user closed it. The page reloads the content when the fetch finished, or when
+		 * it has no progress to show (e.g. while the fetch waits for its turn); the reload
+		 * joins the running fetch, so cancelling ours does not stop it then.
+		 */
+		class AbandonedCheckTask implements Runnable {
+
+			@Override
+			public void run() {
+				FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
+				FetchProgress progress = freenetInterface.getFetchProgress(key);
+				if (progress != null && progress.isFinished()) {
+					return;
+				}
+				if (progress == null || progress.getTimeSinceWatched() > PROGRESS_PAGE_ABANDONED) {
+					cancel();
+					return;
+				}
+				progressTimer.schedule(this, PROGRESS_PAGE_ABANDONED, MILLISECONDS);
+			}
+		}
+
+		private void fail(FetchException e) {
+			if (output != null && output.isOpened()) {
+				output.failed(e);
+				return;
+			}
+			try {
 				// USK key has been updated, redirect to the new URI
 				if (e.getMode() == FetchExceptionMode.PERMANENT_REDIRECT) {
 					String newURI = "/".concat(e.newURI.toString());
 					response.sendRedirect(newURI);
+				} else if (e.getMode() == FetchExceptionMode.TOO_BIG) {
+					// Too big for the browser, offer a download on the global queue instead
+					response.sendRedirect(getRoutes().getPathFor(Download.class) + "?" + Download.getQuery(localPath, e.expectedSize, e.expectedMimeType));
 				} else {
 					response.sendRedirect(getRoutes().getPathForErrorPage(e, localPath));
 				}
+			} catch (IOException ioe) {
+				logger.debug("Could not redirect " + localPath, ioe);
+			} finally {
+				asyncContext.complete();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether an {@code If-None-Match} header matches the given entity tag.
+	 * 
+	 * @param header
+	 *            value of the header, may be {@code null}
+	 * @param known
+	 *            whether the content is known to exist, which {@code *} asks for
+	 * @return {@code true} if the header lists the tag, or is {@code *} and the content is
+	 *         known
+	 */
+	private static boolean matchesETag(String header, String etag, boolean known) {
+		if (header == null) {
+			return false;
+		}
+		for (String tag : header.split(",")) {
+			tag = tag.trim();
+			// If-None-Match uses the weak comparison
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if ((known && tag.equals("*")) || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@code true} if the content of the given key has been fetched successfully
+	 *         recently
+	 */
+	private static boolean isKnown(FreenetInterface freenetInterface, FetchKey key) {
+		FetchProgress progress = freenetInterface.getFetchProgress(key);
+		return progress != null && progress.isFinished() && progress.getFailure() == null;
+	}
+
+	/**
+	 * Caching headers sent along with fetched content.
+	 * <p>
+	 * Content of keys which never change (see {@link FreenetURIUtil#isImmutable(FreenetURI)})
+	 * gets a strong entity tag derived from the key and may be cached forever. The tag also
+	 * covers the node's build, as a new build may filter the same content differently.
+	 * Content of {@code USK@} and {@code KSK@} keys is only cached briefly. Streamed content
+	 * gets the same headers; if the fetch fails, the connection is aborted, so the browser does
+	 * not take the truncated content for complete.
+	 * </p>
+	 */
+	private static class CacheHeaders {
+
+		/** Entity tag, or {@code null} if the content may change */
+		final String etag;
+
+		CacheHeaders(FreenetURI uri, int buildNumber) {
+			if (FreenetURIUtil.isImmutable(uri)) {
+				// Root always filters, the flag keeps tags distinct should that change
+				String tagged = uri.toString() + "|filtered|" + buildNumber;
+				try {
+					etag = "\"" + HexUtil.bytesToHex(SHA256.digest(tagged.getBytes("UTF-8"))) + "\"";
+				} catch (UnsupportedEncodingException e) {
+					throw new Error(e);
+				}
+			} else {
+				etag = null;
+			}
+		}
+
+		void apply(HttpServletResponse response) {
+			if (etag != null) {
+				response.setHeader(HEADER_ETAG, etag);
+				response.setHeader(HEADER_CACHE_CONTROL, CACHE_IMMUTABLE);
+			} else {
+				response.setHeader(HEADER_CACHE_CONTROL, CACHE_MUTABLE);
+			}
+		}
+	}
+
+	/**
+	 * {@link FetchOutput} streaming to the response, setting its headers once the first data
+	 * arrives.
+	 * <p>
+	 * The node's threads only copy the data into a buffer, which a container thread writes to
+	 * the response; a slow browser does not hold up the node, and the data is compressed on the
+	 * container thread. Once the browser falls behind by more than {@link #MAX_BUFFERED} bytes,
+	 * the data is not buffered anymore; the rest is read from the result once the fetch
+	 * completed.
+	 * </p>
+	 */
+	private static class ResponseOutput implements FetchOutput {
+
+		/** MIME type used if the node does not know the type before the data arrives */
+		private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+		/** Number of bytes buffered for the browser at most */
+		private static final int MAX_BUFFERED = 256 * 1024;
+
+		private final AsyncContext asyncContext;
+		private final HttpServletResponse response;
+		private final CacheHeaders cacheHeaders;
+		private final Runnable drainer = new Drainer();
+		private final Deque<byte[]> chunks = new ArrayDeque<byte[]>();
+		/** Number of bytes in {@link #chunks} */
+		private int buffered;
+		/** Number of bytes passed to the buffer, the rest has to be read from the result */
+		private long accepted;
+		private String mimeType;
+		private boolean opened;
+		private boolean closed;
+		private boolean overflowed;
+		/** Whether the drainer is running or about to, it does not stop before it is done */
+		private boolean draining;
+		/** Whether writing to the browser failed, i.e. it went away */
+		private boolean disconnected;
+		private FetchResult result;
+		private FetchException failure;
+		private volatile Runnable disconnectListener;
+		/** Response stream, only used by the drainer */
+		private OutputStream out;
+
+		ResponseOutput(AsyncContext asyncContext, CacheHeaders cacheHeaders) {
+			this.asyncContext = asyncContext;
+			this.response = (HttpServletResponse) asyncContext.getResponse();
+			this.cacheHeaders = cacheHeaders;
+		}
+
+		@Override
+		public synchronized OutputStream open(String mimeType) throws IOException {
+			if (closed) {
+				throw new IOException("Response is used for the progress page");
+			}
+			this.mimeType = mimeType;
+			opened = true;
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					offer(b, off, len);
+				}
+			};
+		}
+
+		/**
+		 * Buffers data written by the node, starting the drainer if necessary.
+		 */
+		private void offer(byte[] b, int off, int len) throws IOException {
+			synchronized (this) {
+				if (disconnected) {
+					throw new IOException("Browser went away");
+				}
+				if (overflowed || len == 0) {
+					return;
+				}
+				if (buffered + len > MAX_BUFFERED) {
+					overflowed = true;
+					return;
+				}
+				chunks.add(Arrays.copyOfRange(b, off, off + len));
+				buffered += len;
+				accepted += len;
+				if (draining) {
+					return;
+				}
+				draining = true;
+			}
+			asyncContext.start(drainer);
+		}
+
+		/**
+		 * Writes the rest of the content and completes the response.
+		 */
+		void succeeded(FetchResult result) {
+			synchronized (this) {
+				if (disconnected) {
+					result.asBucket().free();
+					return;
+				}
+				this.result = result;
+				if (draining) {
+					return;
+				}
+				draining = true;
+			}
+			asyncContext.start(drainer);
+		}
+
+		/**
+		 * Drops the connection, as the content can not be completed.
+		 */
+		void failed(FetchException e) {
+			synchronized (this) {
+				if (disconnected) {
+					return;
+				}
+				failure = e;
+				chunks.clear();
+				buffered = 0;
+				if (draining) {
+					return;
+				}
+				draining = true;
 			}
-			if (result != null) {
-				// When fetching is complete, write it to the response OutputStream
-				response.setContentType(result.getMimeType());
-		        response.setStatus(HttpServletResponse.SC_OK);
-				OutputStream resOutStream = response.getOutputStream();
+			asyncContext.start(drainer);
+		}
 
-				Bucket resultBucket = result.asBucket();
+		/**
+		 * Sets the listener called when writing fails, i.e. the browser went away.
+		 */
+		void whenDisconnected(Runnable listener) {
+			disconnectListener = listener;
+		}
+
+		/**
+		 * @return {@code true} if data has been written to the response
+		 */
+		synchronized boolean isOpened() {
+			return opened;
+		}
+
+		/**
+		 * Keeps the fetch from writing to the response from now on.
+		 * 
+		 * @return {@code true} if nothing has been written to the response yet
+		 */
+		synchronized boolean close() {
+			closed = !opened;
+			return closed;
+		}
+
+		private OutputStream out() throws IOException {
+			if (out == null) {
+				response.setContentType(mimeType != null ? mimeType : DEFAULT_MIME_TYPE);
+				response.setHeader(HEADER_ACCEPT_RANGES, "bytes");
+				cacheHeaders.apply(response);
+				response.setStatus(HttpServletResponse.SC_OK);
+				out = response.getOutputStream();
+			}
+			return out;
+		}
+
+		/**
+		 * Writes the buffered data to the response, running on a container thread until the
+		 * buffer is empty. Completes the response once the fetch completed.
+		 */
+		private class Drainer implements Runnable {
+
+			@Override
+			public void run() {
 				try {
-					BucketTools.copyTo(resultBucket, resOutStream, Long.MAX_VALUE);
-					resOutStream.flush();
-					resOutStream.close();
+					while (true) {
+						byte[] chunk;
+						synchronized (ResponseOutput.this) {
+							chunk = chunks.poll();
+							if (chunk != null) {
+								buffered -= chunk.length;
+							}
+						}
+						if (chunk != null) {
+							out().write(chunk);
+							continue;
+						}
+						FetchException failure;
+						FetchResult result;
+						synchronized (ResponseOutput.this) {
+							failure = ResponseOutput.this.failure;
+							result = ResponseOutput.this.result;
+							ResponseOutput.this.result = null;
+						}
+						if (failure != null) {
+							asyncContext.getRequest().setAttribute(STREAM_FAILURE_ATTRIBUTE, failure);
+							asyncContext.dispatch();
+							return;
+						}
+						if (result != null) {
+							complete(result);
+							return;
+						}
+						// Let the browser show what it has got so far, while the node carries on
+						out().flush();
+						synchronized (ResponseOutput.this) {
+							if (chunks.isEmpty() && ResponseOutput.this.failure == null && ResponseOutput.this.result == null) {
+								draining = false;
+								return;
+							}
+						}
+					}
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					logger.debug("Stopped streaming to the browser", e);
+					FetchResult result;
+					synchronized (ResponseOutput.this) {
+						disconnected = true;
+						chunks.clear();
+						buffered = 0;
+						result = ResponseOutput.this.result;
+						ResponseOutput.this.result = null;
+					}
+					if (result != null) {
+						result.asBucket().free();
+					}
+					Runnable listener = disconnectListener;
+					if (listener != null) {
+						listener.run();
+					}
+					asyncContext.complete();
 				}
-				resultBucket.free();
 			}
-		} else {
-			// The path given was invalid (not a Freenet URI and not in the Routes)
-			response.sendRedirect(getRoutes().getPathForErrorPage());
+
+			/**
+			 * Writes what did not fit into the buffer from the result, and completes the response.
+			 */
+			private void complete(FetchResult result) throws IOException {
+				long skip;
+				synchronized (ResponseOutput.this) {
+					skip = overflowed ? accepted : -1;
+				}
+				Bucket bucket = result.asBucket();
+				try {
+					if (skip >= 0) {
+						InputStream in = bucket.getInputStream();
+						try {
+							IOUtils.copyLarge(in, out(), skip, -1);
+						} finally {
+							in.close();
+						}
+					}
+					OutputStream out = out();
+					out.flush();
+					out.close();
+				} finally {
+					bucket.free();
+				}
+				asyncContext.complete();
+			}
 		}
-		
 	}
 
 }
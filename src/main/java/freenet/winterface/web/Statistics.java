@@ -0,0 +1,36 @@
+package freenet.winterface.web;
+
+import java.util.Map;
+
+import freenet.winterface.core.FragmentCache;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.core.TemplateResourceManager;
+import freenet.winterface.core.VelocityBase;
+import freenet.winterface.freenet.FreenetInterface;
+
+import org.apache.velocity.app.Velocity;
+import org.apache.velocity.context.Context;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Statistics page, showing the counters Winterface keeps about itself.
+ */
+public class Statistics extends VelocityBase {
+
+	@Override
+	protected void subFillContext(Context context, HttpServletRequest request) {
+		FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
+		Map<String, Object> statistics = freenetInterface.getStatistics();
+		TemplateResourceManager templates = (TemplateResourceManager) Velocity.getApplicationAttribute(TemplateResourceManager.APPLICATION_ATTRIBUTE);
+		if (templates != null) {
+			templates.addStatistics(statistics);
+		}
+		FragmentCache fragments = (FragmentCache) Velocity.getApplicationAttribute(FragmentCache.APPLICATION_ATTRIBUTE);
+		if (fragments != null) {
+			fragments.addStatistics(statistics);
+		}
+		context.put("statistics", statistics);
+	}
+
+}
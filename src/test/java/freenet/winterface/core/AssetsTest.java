@@ -0,0 +1,43 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Assets}.
+ */
+public class AssetsTest {
+
+	private final Assets assets = new Assets();
+
+	@Test
+	public void urlOfAStaticFileCarriesItsFingerprint() {
+		String fingerprint = assets.getFingerprint("css/freenet-base.css");
+		assertThat(fingerprint.matches("[0-9a-f]{12}"), is(true));
+		assertThat(assets.url("css/freenet-base.css"), is("/static/css/freenet-base.css?v=" + fingerprint));
+	}
+
+	@Test
+	public void urlOfAMissingFileHasNoFingerprint() {
+		assertThat(assets.getFingerprint("css/missing.css"), nullValue());
+		assertThat(assets.url("css/missing.css"), is("/static/css/missing.css"));
+	}
+
+	@Test
+	public void filesOutsideTheStaticFolderAreNotFingerprinted() {
+		assertThat(assets.getFingerprint("../templates/index.vm"), nullValue());
+	}
+
+	@Test
+	public void askingForMissingFilesDoesNotAddFingerprints() {
+		int size = assets.size();
+		for (int i = 0; i < 100; i++) {
+			assets.getFingerprint("css/missing-" + i + ".css");
+		}
+		assertThat(assets.size(), is(size));
+	}
+
+}
@@ -0,0 +1,72 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ByteRange}.
+ */
+public class ByteRangeTest {
+
+	@Test
+	public void parsesClosedRange() {
+		ByteRange range = ByteRange.parse("bytes=10-19", 100);
+		assertThat(range.first, is(10L));
+		assertThat(range.last, is(19L));
+		assertThat(range.length(), is(10L));
+		assertThat(range.toContentRange(100), is("bytes 10-19/100"));
+	}
+
+	@Test
+	public void openRangeEndsAtLastByte() {
+		ByteRange range = ByteRange.parse("bytes=90-", 100);
+		assertThat(range.first, is(90L));
+		assertThat(range.last, is(99L));
+	}
+
+	@Test
+	public void lastPositionIsClampedToSize() {
+		assertThat(ByteRange.parse("bytes=90-500", 100).last, is(99L));
+	}
+
+	@Test
+	public void suffixRangeCoversLastBytes() {
+		ByteRange range = ByteRange.parse("bytes=-30", 100);
+		assertThat(range.first, is(70L));
+		assertThat(range.last, is(99L));
+		assertThat(ByteRange.parse("bytes=-500", 100).first, is(0L));
+	}
+
+	@Test
+	public void rangeBeyondContentIsUnsatisfiable() {
+		assertThat(ByteRange.parse("bytes=100-", 100), sameInstance(ByteRange.UNSATISFIABLE));
+		assertThat(ByteRange.parse("bytes=-0", 100), sameInstance(ByteRange.UNSATISFIABLE));
+		assertThat(ByteRange.UNSATISFIABLE.toContentRange(100), is("bytes */100"));
+	}
+
+	@Test
+	public void openRangeFromFirstByteIsCompleteContent() {
+		assertThat(ByteRange.isCompleteContent("bytes=0-"), is(true));
+		assertThat(ByteRange.isCompleteContent("bytes= 0 - "), is(true));
+		assertThat(ByteRange.isCompleteContent("bytes=0-99"), is(false));
+		assertThat(ByteRange.isCompleteContent("bytes=1-"), is(false));
+		assertThat(ByteRange.isCompleteContent("bytes=-100"), is(false));
+		assertThat(ByteRange.isCompleteContent("bytes=0-,5-"), is(false));
+		assertThat(ByteRange.isCompleteContent(null), is(false));
+	}
+
+	@Test
+	public void unsupportedOrMalformedRangesAreIgnored() {
+		assertThat(ByteRange.parse(null, 100), nullValue());
+		assertThat(ByteRange.parse("items=0-1", 100), nullValue());
+		assertThat(ByteRange.parse("bytes=0-1,5-6", 100), nullValue());
+		assertThat(ByteRange.parse("bytes=20-10", 100), nullValue());
+		assertThat(ByteRange.parse("bytes=a-b", 100), nullValue());
+		assertThat(ByteRange.parse("bytes=-", 100), nullValue());
+	}
+
+}
@@ -0,0 +1,71 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.StringWriter;
+import java.util.Properties;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CachedDirective} and {@link FragmentCache}.
+ */
+public class CachedDirectiveTest {
+
+	private final FragmentCache cache = new FragmentCache();
+	private final VelocityEngine engine = new VelocityEngine();
+	private final VelocityContext context = new VelocityContext();
+
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("userdirective", CachedDirective.class.getName());
+		engine.setApplicationAttribute(FragmentCache.APPLICATION_ATTRIBUTE, cache);
+		engine.init(properties);
+	}
+
+	@Test
+	public void partIsCopiedWhileItsVersionIsTheSame() {
+		context.put("version", 1);
+		context.put("value", "a");
+		assertThat(render("#cached(\"part\", 0, $version)$value#end"), is("a"));
+		context.put("value", "b");
+		assertThat(render("#cached(\"part\", 0, $version)$value#end"), is("a"));
+		assertThat(cache.getHits(), is(1L));
+		assertThat(cache.getMisses(), is(1L));
+	}
+
+	@Test
+	public void partIsRenderedAgainOnceItsVersionChanged() {
+		context.put("version", 1);
+		context.put("value", "a");
+		render("#cached(\"part\", 0, $version)$value#end");
+		context.put("version", 2);
+		context.put("value", "b");
+		assertThat(render("#cached(\"part\", 0, $version)$value#end"), is("b"));
+		assertThat(cache.getMisses(), is(2L));
+	}
+
+	@Test
+	public void partIsRenderedAgainOnceExpired() {
+		cache.put("part", null, "a", 1);
+		context.put("value", "b");
+		try {
+			Thread.sleep(10);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		assertThat(render("#cached(\"part\", 60)$value#end"), is("b"));
+	}
+
+	private String render(String template) {
+		StringWriter writer = new StringWriter();
+		engine.evaluate(context, writer, "test", template);
+		return writer.toString();
+	}
+
+}
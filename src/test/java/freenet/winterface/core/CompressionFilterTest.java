@@ -0,0 +1,232 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link CompressionFilter}.
+ */
+public class CompressionFilterTest {
+
+	/** Content long enough to be compressed */
+	private final static byte[] CONTENT = new byte[4096];
+	static {
+		Arrays.fill(CONTENT, (byte) 'a');
+	}
+
+	private final CompressionFilter filter = new CompressionFilter();
+	private final HttpServletRequest request = mock(HttpServletRequest.class);
+	private final HttpServletResponse response = mock(HttpServletResponse.class);
+	/** Headers set on the response passed to the filter */
+	private final Map<String, String> headers = new HashMap<String, String>();
+	/** Content written to the response passed to the filter */
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	@Before
+	public void setUp() throws ServletException, IOException {
+		FilterConfig filterConfig = mock(FilterConfig.class);
+		when(filterConfig.getInitParameter(CompressionFilter.COMPRESSION_LEVEL_PARAM)).thenReturn("6");
+		filter.init(filterConfig);
+		when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+		when(request.getRequestURI()).thenReturn("/page");
+		Answer<Void> setHeader = new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				headers.put((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]);
+				return null;
+			}
+		};
+		doAnswer(setHeader).when(response).setHeader(anyString(), anyString());
+		doAnswer(setHeader).when(response).addHeader(anyString(), anyString());
+		doAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) {
+				return headers.get(invocation.getArguments()[0]);
+			}
+		}).when(response).getHeader(anyString());
+		when(response.getContentType()).thenReturn("text/html; charset=UTF-8");
+		when(response.getCharacterEncoding()).thenReturn("UTF-8");
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				body.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				body.write(b, off, len);
+			}
+		});
+	}
+
+	@Test
+	public void contentIsCompressedWithHeldBackHeadersAdapted() throws Exception {
+		filter.doFilter(request, response, new WritingChain(HttpServletResponse.SC_OK, CONTENT.length, "\"tag\""));
+		assertThat(headers.get("Content-Encoding"), is("gzip"));
+		assertThat(headers.get("Content-Length"), nullValue());
+		assertThat(headers.get("ETag"), is("W/\"tag\""));
+		assertThat(gunzip(body.toByteArray()), is(CONTENT));
+	}
+
+	@Test
+	public void tinyContentIsSentAsItIs() throws Exception {
+		filter.doFilter(request, response, new WritingChain(HttpServletResponse.SC_OK, 10, "\"tag\""));
+		assertThat(headers.get("Content-Encoding"), nullValue());
+		assertThat(headers.get("Content-Length"), is("10"));
+		assertThat(headers.get("ETag"), is("\"tag\""));
+		assertThat(body.size(), is(10));
+	}
+
+	@Test
+	public void notModifiedIsPassedOnUntouched() throws Exception {
+		filter.doFilter(request, response, new FilterChain() {
+			@Override
+			public void doFilter(ServletRequest request, ServletResponse response) {
+				HttpServletResponse httpResponse = (HttpServletResponse) response;
+				httpResponse.setHeader("ETag", "\"tag\"");
+				httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			}
+		});
+		verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		assertThat(headers.get("Content-Encoding"), nullValue());
+		assertThat(headers.get("ETag"), is("\"tag\""));
+		assertThat(body.size(), is(0));
+	}
+
+	@Test
+	public void redirectIsPassedOnUntouched() throws Exception {
+		filter.doFilter(request, response, new FilterChain() {
+			@Override
+			public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+				((HttpServletResponse) response).sendRedirect("/elsewhere");
+			}
+		});
+		verify(response).sendRedirect("/elsewhere");
+		assertThat(headers.get("Content-Encoding"), nullValue());
+		assertThat(body.size(), is(0));
+	}
+
+	@Test
+	public void asyncResponseIsFinishedOnCompletion() throws Exception {
+		AsyncContext asyncContext = mock(AsyncContext.class);
+		when(request.isAsyncStarted()).thenReturn(true);
+		when(request.getAsyncContext()).thenReturn(asyncContext);
+		filter.doFilter(request, response, new WritingChain(HttpServletResponse.SC_OK, -1, null));
+		ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+		verify(asyncContext).addListener(listener.capture());
+		// Flushed as it was written, but not finished yet
+		int flushed = body.size();
+		listener.getValue().onComplete(null);
+		assertThat(body.size() > flushed, is(true));
+		assertThat(gunzip(body.toByteArray()), is(CONTENT));
+	}
+
+	@Test
+	public void gzipIsPreferred() {
+		assertThat(CompressionFilter.selectEncoding("deflate, gzip"), is("gzip"));
+		assertThat(CompressionFilter.selectEncoding("gzip;q=0.5, deflate"), is("gzip"));
+		assertThat(CompressionFilter.selectEncoding("*"), is("gzip"));
+	}
+
+	@Test
+	public void deflateIsUsedIfGzipIsNotAccepted() {
+		assertThat(CompressionFilter.selectEncoding("deflate"), is("deflate"));
+		assertThat(CompressionFilter.selectEncoding("gzip;q=0, deflate"), is("deflate"));
+	}
+
+	@Test
+	public void noEncodingIsSelectedIfNoneIsAccepted() {
+		assertThat(CompressionFilter.selectEncoding(null), nullValue());
+		assertThat(CompressionFilter.selectEncoding("identity"), nullValue());
+		assertThat(CompressionFilter.selectEncoding("gzip;q=0, deflate;q=0.0"), nullValue());
+	}
+
+	@Test
+	public void textIsCompressible() {
+		assertThat(CompressionFilter.isCompressible("text/html; charset=UTF-8"), is(true));
+		assertThat(CompressionFilter.isCompressible("application/javascript"), is(true));
+		assertThat(CompressionFilter.isCompressible("image/svg+xml"), is(true));
+	}
+
+	@Test
+	public void compressedContentIsNotCompressible() {
+		assertThat(CompressionFilter.isCompressible("image/png"), is(false));
+		assertThat(CompressionFilter.isCompressible("video/webm"), is(false));
+		assertThat(CompressionFilter.isCompressible("application/zip"), is(false));
+		assertThat(CompressionFilter.isCompressible("application/octet-stream"), is(false));
+		assertThat(CompressionFilter.isCompressible(null), is(false));
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	/**
+	 * Chain writing {@link #CONTENT} like a servlet would, flushing it.
+	 */
+	private static class WritingChain implements FilterChain {
+
+		private final int status;
+		private final int length;
+		private final String etag;
+
+		/**
+		 * @param length
+		 *            length of the content to write, {@code -1} for all of it without
+		 *            {@code Content-Length}
+		 */
+		WritingChain(int status, int length, String etag) {
+			this.status = status;
+			this.length = length;
+			this.etag = etag;
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+			HttpServletResponse httpResponse = (HttpServletResponse) response;
+			httpResponse.setStatus(status);
+			if (length >= 0) {
+				httpResponse.setHeader("Content-Length", Integer.toString(length));
+			}
+			if (etag != null) {
+				httpResponse.setHeader("ETag", etag);
+			}
+			ServletOutputStream out = httpResponse.getOutputStream();
+			out.write(CONTENT, 0, length >= 0 ? length : CONTENT.length);
+			out.flush();
+		}
+	}
+
+}
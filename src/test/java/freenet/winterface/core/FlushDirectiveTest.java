@@ -0,0 +1,69 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link FlushDirective}.
+ */
+public class FlushDirectiveTest {
+
+	private final VelocityEngine engine = new VelocityEngine();
+	private final VelocityContext context = new VelocityContext();
+	private final FlushRecordingWriter writer = new FlushRecordingWriter();
+
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("userdirective", FlushDirective.class.getName());
+		engine.init(properties);
+	}
+
+	@Test
+	public void renderedPartIsFlushedWhenStreaming() {
+		context.put(FlushDirective.STREAMING_KEY, true);
+		engine.evaluate(context, writer, "test", "head#flush()body");
+		assertThat(writer.flushed, contains("head"));
+		assertThat(writer.toString(), is("headbody"));
+	}
+
+	@Test
+	public void nothingIsFlushedWhenNotStreaming() {
+		context.put(FlushDirective.STREAMING_KEY, false);
+		engine.evaluate(context, writer, "test", "head#flush()body");
+		assertThat(writer.flushed, empty());
+		assertThat(writer.toString(), is("headbody"));
+	}
+
+	@Test
+	public void nothingIsFlushedWithoutStreamingMode() {
+		engine.evaluate(context, writer, "test", "head#flush()body");
+		assertThat(writer.flushed, empty());
+	}
+
+	/**
+	 * Writer noting what had been written whenever it is flushed.
+	 */
+	private static class FlushRecordingWriter extends StringWriter {
+
+		final List<String> flushed = new ArrayList<String>();
+
+		@Override
+		public void flush() {
+			flushed.add(toString());
+		}
+	}
+
+}
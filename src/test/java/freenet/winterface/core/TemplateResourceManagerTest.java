@@ -0,0 +1,47 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Properties;
+
+import org.apache.velocity.app.VelocityEngine;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TemplateResourceManager}.
+ */
+public class TemplateResourceManagerTest {
+
+	private static final String TEMPLATE = VelocityBase.TEMPLATE_PATH + "plain.vm";
+
+	@Test
+	public void cachedTemplatesAreParsedOnce() {
+		TemplateResourceManager manager = createManager(true);
+		manager.getResource(TEMPLATE, TemplateResourceManager.RESOURCE_TEMPLATE, "UTF-8");
+		manager.getResource(TEMPLATE, TemplateResourceManager.RESOURCE_TEMPLATE, "UTF-8");
+		assertThat(manager.getLookups(), is(2L));
+		assertThat(manager.getParses(), is(1L));
+	}
+
+	@Test
+	public void templatesAreParsedEachTimeWithoutCache() {
+		TemplateResourceManager manager = createManager(false);
+		manager.getResource(TEMPLATE, TemplateResourceManager.RESOURCE_TEMPLATE, "UTF-8");
+		manager.getResource(TEMPLATE, TemplateResourceManager.RESOURCE_TEMPLATE, "UTF-8");
+		assertThat(manager.getLookups(), is(2L));
+		assertThat(manager.getParses(), is(2L));
+	}
+
+	private static TemplateResourceManager createManager(boolean cache) {
+		Properties properties = new Properties();
+		properties.setProperty("resource.manager.class", TemplateResourceManager.class.getName());
+		properties.setProperty("resource.loader", "class");
+		properties.setProperty("class.resource.loader.class", TemplateLoader.class.getName());
+		properties.setProperty("class.resource.loader.cache", Boolean.toString(cache));
+		VelocityEngine engine = new VelocityEngine();
+		engine.init(properties);
+		return (TemplateResourceManager) engine.getApplicationAttribute(TemplateResourceManager.APPLICATION_ATTRIBUTE);
+	}
+
+}
@@ -0,0 +1,192 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Load test for a {@link Server} handling requests with a {@link VirtualThreadPool}.
+ * <p>
+ * On runtimes without usable virtual threads, the pool starts a platform thread for each
+ * request instead, like {@link VirtualThreads#newExecutor()} would a virtual one.
+ * </p>
+ */
+public class VirtualThreadPoolTest {
+
+	/** Far more requests than the default thread pool could block at once */
+	private final static int REQUESTS = 500;
+
+	private final static int ACCEPTORS = 2;
+
+	/** Longer than several idle checks of the selectors */
+	private final static long IDLE_TICKS = TimeUnit.SECONDS.toMillis(2);
+
+	private final Fetch fetch = new Fetch();
+	private final CountDownLatch started = new CountDownLatch(REQUESTS);
+	/** Connector jobs the pool started platform threads for */
+	private final List<String> connectorJobs = new CopyOnWriteArrayList<String>();
+
+	private Server server;
+	private int port;
+	private ExecutorService clients;
+
+	@Before
+	public void startServer() throws Exception {
+		ExecutorService executor = VirtualThreads.newExecutor();
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool();
+		}
+		server = new Server();
+		server.setThreadPool(new VirtualThreadPool(executor) {
+			@Override
+			public boolean dispatch(Runnable job) {
+				if (isConnectorJob(job)) {
+					connectorJobs.add(job.toString());
+				}
+				return super.dispatch(job);
+			}
+		});
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setAcceptors(ACCEPTORS);
+		connector.setHost("127.0.0.1");
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler sch = new ServletContextHandler();
+		sch.addServlet(new ServletHolder(new BlockingServlet()), "/*");
+		server.setHandler(sch);
+		server.start();
+		port = connector.getLocalPort();
+		clients = Executors.newFixedThreadPool(REQUESTS);
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		fetch.complete();
+		if (clients != null) {
+			clients.shutdownNow();
+		}
+		server.stop();
+		server.join();
+	}
+
+	@Test
+	public void onlyAcceptorsAndSelectorsGetPlatformThreads() throws InterruptedException {
+		int jobs = connectorJobs.size();
+		assertThat(jobs, greaterThanOrEqualTo(ACCEPTORS));
+		Thread.sleep(IDLE_TICKS);
+		assertThat(connectorJobs.size(), is(jobs));
+	}
+
+	@Test
+	public void hundredsOfBlockedRequestsRunAtOnce() throws Exception {
+		int jobs = connectorJobs.size();
+		List<Future<String>> responses = new ArrayList<Future<String>>();
+		for (int i = 0; i < REQUESTS; i++) {
+			responses.add(clients.submit(new Request(i)));
+		}
+		// All of them block at the same time, none waits for a thread
+		assertThat(started.await(60, TimeUnit.SECONDS), is(true));
+		fetch.complete();
+		for (int i = 0; i < REQUESTS; i++) {
+			assertThat(responses.get(i).get(60, TimeUnit.SECONDS), is("/" + i));
+		}
+		assertThat(connectorJobs.size(), is(jobs));
+	}
+
+	/**
+	 * Requests a path, returning the response.
+	 */
+	private class Request implements Callable<String> {
+
+		private final int id;
+
+		Request(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public String call() throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/" + id).openConnection();
+			connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(60));
+			InputStream in = connection.getInputStream();
+			try {
+				assertThat(connection.getResponseCode(), is(HttpServletResponse.SC_OK));
+				return IOUtils.toString(in, "UTF-8");
+			} finally {
+				in.close();
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the {@link Fetch} like a request waiting for the node, then answers with the
+	 * requested path.
+	 */
+	private class BlockingServlet extends HttpServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			started.countDown();
+			try {
+				fetch.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			response.setContentType("text/plain");
+			response.setCharacterEncoding("UTF-8");
+			response.getWriter().print(request.getPathInfo());
+		}
+	}
+
+	/**
+	 * A fetch from the node, waited for in synchronized code like fred's
+	 * {@code FetchWaiter} does, which pins virtual threads before Java 24.
+	 */
+	private static class Fetch {
+
+		private boolean done;
+
+		synchronized void await() throws InterruptedException {
+			while (!done) {
+				wait();
+			}
+		}
+
+		synchronized void complete() {
+			done = true;
+			notifyAll();
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link CachingFreenetURIFetcher}.
+ */
+public class CachingFreenetURIFetcherTest {
+
+	private final FreenetURIFetcher fetcher = mock(FreenetURIFetcher.class);
+	private final CachingFreenetURIFetcher cache = new CachingFreenetURIFetcher(fetcher, 100);
+
+	@Before
+	public void setupFetcher() {
+		answerWithResultsOf(40);
+	}
+
+	@Test
+	public void secondFetchIsServedFromCache() throws Exception {
+		FreenetURI uri = new FreenetURI("KSK@winterface");
+		cache.filteredFetchURI(uri).asBucket().free();
+		FetchResult result = cache.filteredFetchURI(uri);
+		assertThat(result.size(), is(40L));
+		verifyFetched(1, uri);
+		assertThat(cache.getHits(), is(1L));
+		assertThat(cache.getMisses(), is(1L));
+	}
+
+	@Test
+	public void leastRecentlyUsedResultIsEvictedWhenBudgetIsExceeded() throws Exception {
+		FreenetURI first = new FreenetURI("KSK@first");
+		FreenetURI second = new FreenetURI("KSK@second");
+		FreenetURI third = new FreenetURI("KSK@third");
+		cache.filteredFetchURI(first).asBucket().free();
+		cache.filteredFetchURI(second).asBucket().free();
+		cache.filteredFetchURI(first).asBucket().free();
+		cache.filteredFetchURI(third).asBucket().free();
+		assertThat(cache.getEvictions(), is(1L));
+		assertThat(cache.getSize(), is(80L));
+		cache.filteredFetchURI(first).asBucket().free();
+		cache.filteredFetchURI(second).asBucket().free();
+		verifyFetched(1, first);
+		verifyFetched(2, second);
+	}
+
+	@Test
+	public void resultsLargerThanTheBudgetAreNotCached() throws Exception {
+		answerWithResultsOf(101);
+		FreenetURI uri = new FreenetURI("KSK@winterface");
+		cache.filteredFetchURI(uri);
+		assertThat(cache.getEntryCount(), is(0));
+		assertThat(cache.getSize(), is(0L));
+	}
+
+	@Test
+	public void offeredResultsAreServedFromCache() throws Exception {
+		FreenetURI uri = new FreenetURI("KSK@winterface");
+		FetchResult prefetched = createResult(40);
+		cache.offer(new FetchKey(uri, true), prefetched);
+		prefetched.asBucket().free();
+		assertThat(cache.contains(new FetchKey(uri, true)), is(true));
+		cache.filteredFetchURI(uri).asBucket().free();
+		cache.filteredFetchURI(uri).asBucket().free();
+		verifyFetched(0, uri);
+		Map<String, Object> statistics = new HashMap<String, Object>();
+		cache.addStatistics(statistics);
+		assertThat(statistics.get("Statistics.prefetchHits"), is((Object) 1L));
+	}
+
+	private void answerWithResultsOf(final int size) {
+		doAnswer(new Answer<FetchHandle>() {
+			@Override
+			public FetchHandle answer(InvocationOnMock invocation) throws IOException {
+				((FetchCallback) invocation.getArguments()[1]).onSuccess(createResult(size));
+				return FetchHandle.COMPLETED;
+			}
+		}).when(fetcher).startFetch(any(FetchRequest.class), any(FetchCallback.class));
+	}
+
+	private void verifyFetched(int times, FreenetURI uri) {
+		verify(fetcher, times(times)).startFetch(argThat(requestFor(new FetchKey(uri, true))), any(FetchCallback.class));
+	}
+
+	private static ArgumentMatcher<FetchRequest> requestFor(final FetchKey key) {
+		return new ArgumentMatcher<FetchRequest>() {
+			@Override
+			public boolean matches(Object request) {
+				return key.equals(((FetchRequest) request).getKey());
+			}
+		};
+	}
+
+	private static FetchResult createResult(int size) throws IOException {
+		ResultBucket bucket = new ResultBucket();
+		OutputStream out = bucket.getOutputStream();
+		out.write(new byte[size]);
+		out.close();
+		return new FetchResult(new ClientMetadata("text/plain"), bucket);
+	}
+
+}
@@ -0,0 +1,104 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+
+import freenet.client.Metadata;
+import freenet.client.async.SnoopMetadata;
+import freenet.keys.FreenetURI;
+import freenet.support.api.Bucket;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ManifestCache}.
+ */
+public class ManifestCacheTest {
+
+	private static final String SITE = "USK@PFeLTa1si2Ml5sDeUy7eDhPso6TPdmw-2gWfQ4Jg02w,3ocfrqgUMVWA2PeorZx40TW0c-FiIOL-TWKQHoDbVdE,AQACAAE/site/";
+	private static final byte[] MANIFEST = { 1, 2, 3 };
+
+	private final ManifestCache cache = new ManifestCache();
+
+	@Test
+	public void unknownEditionIsAMiss() throws Exception {
+		assertThat(cache.lookup(new FreenetURI(SITE + "1/index.html")), nullValue());
+		assertThat(cache.getLookups(), is(1L));
+		assertThat(cache.getHits(), is(0L));
+	}
+
+	@Test
+	public void manifestIsUsedForOtherFilesOfTheEdition() throws Exception {
+		snoop(SITE + "1/index.html", simpleManifest());
+		Bucket manifest = cache.lookup(new FreenetURI(SITE + "1/about.html"));
+		assertThat(manifest, notNullValue());
+		InputStream in = manifest.getInputStream();
+		try {
+			assertThat(IOUtils.toByteArray(in), is(MANIFEST));
+		} finally {
+			in.close();
+		}
+		assertThat(cache.getHits(), is(1L));
+		assertThat(cache.lookup(new FreenetURI(SITE + "2/about.html")), nullValue());
+	}
+
+	@Test
+	public void manifestOfAContainerIsRecorded() throws Exception {
+		Metadata meta = mock(Metadata.class);
+		when(meta.isArchiveManifest()).thenReturn(true);
+		when(meta.writeToByteArray()).thenReturn(MANIFEST);
+		snoop(SITE + "1/index.html", meta);
+		assertThat(cache.lookup(new FreenetURI(SITE + "1/about.html")), notNullValue());
+	}
+
+	@Test
+	public void onlyTheFirstManifestIsRecorded() throws Exception {
+		SnoopMetadata snoop = cache.createSnoop(new FreenetURI(SITE + "1/docs/index.html"));
+		snoop.snoopMetadata(simpleManifest(), null);
+		Metadata inner = mock(Metadata.class);
+		when(inner.isSimpleManifest()).thenReturn(true);
+		when(inner.writeToByteArray()).thenReturn(new byte[] { 4 });
+		snoop.snoopMetadata(inner, null);
+		InputStream in = cache.lookup(new FreenetURI(SITE + "1/about.html")).getInputStream();
+		try {
+			assertThat(IOUtils.toByteArray(in), is(MANIFEST));
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedEditionsAreEvicted() throws Exception {
+		for (int edition = 0; edition <= ManifestCache.MAX_EDITIONS; edition++) {
+			snoop(SITE + edition + "/index.html", simpleManifest());
+		}
+		assertThat(cache.getEditionCount(), is(ManifestCache.MAX_EDITIONS));
+		assertThat(cache.lookup(new FreenetURI(SITE + "0/index.html")), nullValue());
+		assertThat(cache.lookup(new FreenetURI(SITE + ManifestCache.MAX_EDITIONS + "/index.html")), notNullValue());
+	}
+
+	@Test
+	public void keysWithoutFixedEditionAreNotCached() throws Exception {
+		assertThat(cache.createSnoop(new FreenetURI(SITE + "-1/index.html")), nullValue());
+		assertThat(cache.createSnoop(new FreenetURI("KSK@index.html")), nullValue());
+	}
+
+	private void snoop(String uri, Metadata meta) throws Exception {
+		cache.createSnoop(new FreenetURI(uri)).snoopMetadata(meta, null);
+	}
+
+	private static Metadata simpleManifest() throws Exception {
+		Metadata meta = mock(Metadata.class);
+		when(meta.isSimpleManifest()).thenReturn(true);
+		when(meta.writeToByteArray()).thenReturn(MANIFEST);
+		return meta;
+	}
+
+}
@@ -0,0 +1,166 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchException;
+import freenet.client.FetchException.FetchExceptionMode;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SchedulingFreenetURIFetcher}.
+ */
+public class SchedulingFreenetURIFetcherTest {
+
+	private final PendingFetcher pending = new PendingFetcher();
+	private final FetchProgressTracker progressTracker = new FetchProgressTracker();
+	private final SchedulingFreenetURIFetcher fetcher = new SchedulingFreenetURIFetcher(pending, 1, progressTracker);
+	private final List<FetchExceptionMode> failures = new ArrayList<FetchExceptionMode>();
+
+	@Test
+	public void fetchesBeyondTheLimitWait() throws MalformedURLException {
+		start("KSK@first", "alice", true);
+		start("KSK@second", "alice", true);
+		assertThat(pending.started(), contains("KSK@first"));
+		assertThat(fetcher.getQueueDepth(), is(1));
+		pending.finishNext();
+		assertThat(pending.started(), contains("KSK@first", "KSK@second"));
+		assertThat(fetcher.getQueueDepth(), is(0));
+		assertThat(fetcher.getFetchesQueued(), is(1L));
+	}
+
+	@Test
+	public void mainDocumentsGoBeforeEmbeddedContent() throws MalformedURLException {
+		start("KSK@running", "alice", true);
+		start("KSK@image", "alice", false);
+		start("KSK@page", "bob", true);
+		pending.finishNext();
+		pending.finishNext();
+		assertThat(pending.started(), contains("KSK@running", "KSK@page", "KSK@image"));
+	}
+
+	@Test
+	public void clientsTakeTurns() throws MalformedURLException {
+		start("KSK@running", "alice", false);
+		start("KSK@alice1", "alice", false);
+		start("KSK@alice2", "alice", false);
+		start("KSK@bob1", "bob", false);
+		for (int i = 0; i < 3; i++) {
+			pending.finishNext();
+		}
+		assertThat(pending.started(), contains("KSK@running", "KSK@alice1", "KSK@bob1", "KSK@alice2"));
+	}
+
+	@Test
+	public void failedFetchesMakeRoomToo() throws MalformedURLException {
+		start("KSK@first", "alice", true);
+		start("KSK@second", "bob", true);
+		pending.failNext();
+		assertThat(pending.started(), contains("KSK@first", "KSK@second"));
+	}
+
+	@Test
+	public void cancelledFetchesLeaveTheQueue() throws MalformedURLException {
+		start("KSK@running", "alice", true);
+		FetchHandle waiting = start("KSK@waiting", "alice", true);
+		start("KSK@next", "bob", true);
+		waiting.cancel();
+		assertThat(failures, contains(FetchExceptionMode.CANCELLED));
+		assertThat(fetcher.getQueueDepth(), is(1));
+		pending.finishNext();
+		assertThat(pending.started(), contains("KSK@running", "KSK@next"));
+	}
+
+	@Test
+	public void cancellingARunningFetchCancelsItInTheUnderlyingFetcher() throws MalformedURLException {
+		start("KSK@running", "alice", true).cancel();
+		assertThat(pending.cancelled, is(1));
+		assertThat(fetcher.getFetchesCancelled(), is(1L));
+	}
+
+	@Test
+	public void waitingFetchesAreTrackedAsQueued() throws MalformedURLException {
+		start("KSK@running", "alice", true);
+		start("KSK@waiting", "alice", true);
+		FetchKey waiting = new FetchKey(new FreenetURI("KSK@waiting"), true);
+		FetchProgress progress = progressTracker.get(waiting);
+		assertThat(progress.getPhase(), is(FetchProgress.Phase.QUEUED));
+		pending.finishNext();
+		// The underlying fetcher takes the progress over once it starts the fetch
+		assertThat(progressTracker.start(waiting), sameInstance(progress));
+		assertThat(progress.getPhase(), is(FetchProgress.Phase.METADATA));
+	}
+
+	@Test
+	public void cancelledWaitingFetchesFinishTheirProgress() throws MalformedURLException {
+		start("KSK@running", "alice", true);
+		start("KSK@waiting", "alice", true).cancel();
+		FetchProgress progress = progressTracker.get(new FetchKey(new FreenetURI("KSK@waiting"), true));
+		assertThat(progress.getPhase(), is(FetchProgress.Phase.FAILED));
+	}
+
+	private FetchHandle start(String uri, String client, boolean mainDocument) throws MalformedURLException {
+		FetchKey key = new FetchKey(new FreenetURI(uri), true);
+		return fetcher.startFetch(new FetchRequest(key, null, client,
+				mainDocument ? FetchProfile.INTERACTIVE_PAGE : FetchProfile.INLINE_SUBRESOURCE), new FetchCallback() {
+			@Override
+			public void onSuccess(FetchResult result) {
+			}
+
+			@Override
+			public void onFailure(FetchException e) {
+				failures.add(e.getMode());
+			}
+		});
+	}
+
+	/**
+	 * Fetcher which keeps fetches running until they are finished by the test.
+	 */
+	private static class PendingFetcher extends AbstractFreenetURIFetcher {
+
+		private final List<FetchRequest> requests = new ArrayList<FetchRequest>();
+		private final List<FetchCallback> callbacks = new ArrayList<FetchCallback>();
+		private int finished;
+		private int cancelled;
+
+		@Override
+		public FetchHandle startFetch(FetchRequest request, FetchCallback callback) {
+			requests.add(request);
+			callbacks.add(callback);
+			return new FetchHandle() {
+				@Override
+				public void cancel() {
+					cancelled++;
+				}
+			};
+		}
+
+		List<String> started() {
+			List<String> uris = new ArrayList<String>();
+			for (FetchRequest request : requests) {
+				uris.add(request.getKey().getURI().toString());
+			}
+			return uris;
+		}
+
+		void finishNext() {
+			callbacks.get(finished++).onSuccess(new FetchResult(new ClientMetadata("text/plain"), new ResultBucket()));
+		}
+
+		void failNext() {
+			callbacks.get(finished++).onFailure(new FetchException(FetchExceptionMode.CANCELLED));
+		}
+	}
+
+}
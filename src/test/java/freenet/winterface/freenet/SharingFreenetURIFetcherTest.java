@@ -0,0 +1,127 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SharingFreenetURIFetcher}.
+ */
+public class SharingFreenetURIFetcherTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger fetches = new AtomicInteger();
+	private final SharingFreenetURIFetcher fetcher = new SharingFreenetURIFetcher(new BlockingFetcher());
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentCallersShareOneFetch() throws Exception {
+		final FreenetURI uri = new FreenetURI("KSK@winterface");
+		List<Future<FetchResult>> results = new ArrayList<Future<FetchResult>>();
+		for (int i = 0; i < 3; i++) {
+			results.add(executor.submit(new Callable<FetchResult>() {
+				@Override
+				public FetchResult call() throws FetchException {
+					return fetcher.filteredFetchURI(uri);
+				}
+			}));
+		}
+		while (fetcher.getCallersJoined() < 2) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		FetchResult first = results.get(0).get();
+		for (Future<FetchResult> result : results) {
+			assertThat(result.get().asBucket(), sameInstance(first.asBucket()));
+		}
+		assertThat(fetches.get(), is(1));
+		assertThat(fetcher.getFetchesStarted(), is(1L));
+		assertThat(fetcher.getCallersJoined(), is(2L));
+	}
+
+	@Test
+	public void filteredAndUnfilteredFetchesAreNotShared() throws MalformedURLException, FetchException {
+		release.countDown();
+		FreenetURI uri = new FreenetURI("KSK@winterface");
+		fetcher.filteredFetchURI(uri);
+		fetcher.fetchURI(uri);
+		assertThat(fetches.get(), is(2));
+		assertThat(fetcher.getCallersJoined(), is(0L));
+	}
+
+	@Test
+	public void sequentialCallersStartNewFetches() throws MalformedURLException, FetchException {
+		release.countDown();
+		FreenetURI uri = new FreenetURI("KSK@winterface");
+		fetcher.filteredFetchURI(uri).asBucket().free();
+		fetcher.filteredFetchURI(uri).asBucket().free();
+		assertThat(fetches.get(), is(2));
+		assertThat(fetcher.getFetchesStarted(), is(2L));
+	}
+
+	@Test
+	public void fetchIsOnlyCancelledWhenAllCallersCancelled() throws MalformedURLException {
+		FreenetURIFetcher underlying = mock(FreenetURIFetcher.class);
+		FetchHandle underlyingHandle = mock(FetchHandle.class);
+		when(underlying.startFetch(any(FetchRequest.class), any(FetchCallback.class))).thenReturn(underlyingHandle);
+		SharingFreenetURIFetcher sharing = new SharingFreenetURIFetcher(underlying);
+		FetchRequest request = new FetchRequest(new FetchKey(new FreenetURI("KSK@winterface"), true), null);
+		FetchCallback first = mock(FetchCallback.class);
+		FetchCallback second = mock(FetchCallback.class);
+		FetchHandle firstHandle = sharing.startFetch(request, first);
+		FetchHandle secondHandle = sharing.startFetch(request, second);
+		firstHandle.cancel();
+		verify(first).onFailure(any(FetchException.class));
+		verify(underlyingHandle, never()).cancel();
+		secondHandle.cancel();
+		verify(second).onFailure(any(FetchException.class));
+		verify(underlyingHandle).cancel();
+	}
+
+	/**
+	 * Fetcher which blocks until {@link #release} is counted down.
+	 */
+	private class BlockingFetcher extends AbstractFreenetURIFetcher {
+
+		@Override
+		public FetchHandle startFetch(FetchRequest request, FetchCallback callback) {
+			fetches.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			callback.onSuccess(new FetchResult(new ClientMetadata("text/plain"), new ResultBucket()));
+			return FetchHandle.COMPLETED;
+		}
+	}
+
+}